@@ -1,16 +1,23 @@
 package com.proxy.interceptor.controller;
 
+import com.proxy.interceptor.dto.JournalRecord;
 import com.proxy.interceptor.model.AuditLog;
 import com.proxy.interceptor.service.AuditService;
+import com.proxy.interceptor.service.QueryJournal;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.IOException;
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/api/audit")
@@ -19,6 +26,7 @@ import java.util.List;
 public class AuditController {
 
     private final AuditService auditService;
+    private final QueryJournal queryJournal;
 
     @GetMapping
     public ResponseEntity<List<AuditLog>> getAuditLogs() {
@@ -31,4 +39,21 @@ public class AuditController {
     ) {
         return ResponseEntity.ok(auditService.getLogsByUser(username));
     }
+
+    /*
+    * Statements from the query journal in [from, to], oldest first, at most limit of them.
+     */
+    @GetMapping("/journal")
+    public ResponseEntity<?> getJournal(
+            @RequestParam Instant from,
+            @RequestParam Instant to,
+            @RequestParam(defaultValue = "1000") int limit
+    ) throws IOException {
+        if (!queryJournal.isEnabled()) {
+            return ResponseEntity.status(404).body(Map.of("error", "Query journal is not enabled"));
+        }
+        try (Stream<JournalRecord> records = queryJournal.read(from, to)) {
+            return ResponseEntity.ok(records.limit(limit).toList());
+        }
+    }
 }
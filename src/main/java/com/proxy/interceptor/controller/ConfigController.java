@@ -1,5 +1,6 @@
 package com.proxy.interceptor.controller;
 
+import com.proxy.interceptor.proxy.SqlClassifier;
 import com.proxy.interceptor.service.AuditService;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
@@ -18,6 +19,7 @@ import java.util.Map;
 public class ConfigController {
 
     private final AuditService auditService;
+    private final SqlClassifier sqlClassifier;
 
     @Value("${proxy.listen-port}")
     private int proxyPort;
@@ -28,15 +30,6 @@ public class ConfigController {
     @Value("${proxy.target-port}")
     private int targetPort;
 
-    @Value("${proxy.block-by-default}")
-    private boolean blockByDefault;
-
-    @Value("${proxy.critical-keywords}")
-    private List<String> criticalKeywords;
-
-    @Value("${proxy.allowed-keywords}")
-    private List<String> allowedKeywords;
-
     @Value("${approval.peer-enabled}")
     private boolean peerApprovalEnabled;
 
@@ -49,9 +42,9 @@ public class ConfigController {
         config.put("proxy_port", proxyPort);
         config.put("target_host", targetHost);
         config.put("target_port", targetPort);
-        config.put("block_by_default", blockByDefault);
-        config.put("critical_keywords", String.join(", ", criticalKeywords));
-        config.put("allowed_keywords", String.join(", ", allowedKeywords));
+        config.put("block_by_default", sqlClassifier.isBlockByDefault());
+        config.put("critical_keywords", String.join(", ", sqlClassifier.getCriticalKeywords()));
+        config.put("allowed_keywords", String.join(", ", sqlClassifier.getAllowedKeywords()));
         config.put("peer_approval_enabled", peerApprovalEnabled);
         config.put("peer_approval_min_votes", minVotes);
         return ResponseEntity.ok(config);
@@ -63,19 +56,51 @@ public class ConfigController {
             @RequestBody Map<String, Object> newConfig,
             HttpServletRequest request) {
 
-        // Note: Not implemented. After review, we can use Spring Cloud Config for dynamic configuration.
-        // For now, we just audit the attempt.
+        // Note: Only classification rules are applied live. After review, we can use Spring Cloud Config
+        // for the rest of the dynamic configuration. For now, we just audit the attempt.
 
         String username = (String) request.getAttribute("username");
+
+        boolean rulesUpdated = newConfig.containsKey("critical_keywords")
+                || newConfig.containsKey("allowed_keywords")
+                || newConfig.containsKey("block_by_default");
+        if (rulesUpdated) {
+            List<String> critical = newConfig.containsKey("critical_keywords")
+                    ? parseKeywords(newConfig.get("critical_keywords"))
+                    : sqlClassifier.getCriticalKeywords();
+            List<String> allowed = newConfig.containsKey("allowed_keywords")
+                    ? parseKeywords(newConfig.get("allowed_keywords"))
+                    : sqlClassifier.getAllowedKeywords();
+            boolean blockDefault = newConfig.containsKey("block_by_default")
+                    ? Boolean.parseBoolean(String.valueOf(newConfig.get("block_by_default")))
+                    : sqlClassifier.isBlockByDefault();
+
+            sqlClassifier.updateRules(critical, allowed, blockDefault);
+            auditService.log(username, "classification_rules_updated",
+                    String.format("critical=%s allowed=%s block_by_default=%s", critical, allowed, blockDefault),
+                    getClientIp(request));
+        }
+
         auditService.log(username, "config_update_attempted",
-            "Configuration update requested (requires restart)", getClientIp(request));
+            rulesUpdated
+                ? "Configuration update requested (classification rules applied, other settings require restart)"
+                : "Configuration update requested (requires restart)",
+            getClientIp(request));
 
         return ResponseEntity.ok(Map.of(
             "ok", true,
-            "message", "Configuration saved.  Restart required to apply changes."
+            "message", "Configuration saved. Classification rules applied, other settings require a restart."
         ));
     }
 
+    private List<String> parseKeywords(Object value) {
+        List<?> raw = value instanceof List<?> list ? list : List.of(String.valueOf(value).split(","));
+        return raw.stream()
+                .map(k -> String.valueOf(k).trim())
+                .filter(k -> !k.isEmpty())
+                .toList();
+    }
+
     private String getClientIp(HttpServletRequest request) {
         String xForwardedFor = request.getHeader("X-Forwarded-For");
         if (xForwardedFor != null && !xForwardedFor.isEmpty()) {
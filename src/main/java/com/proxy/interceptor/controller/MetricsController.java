@@ -5,6 +5,7 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.Map;
@@ -20,4 +21,9 @@ public class MetricsController {
     public ResponseEntity<Map<String, Object>> getMetrics() {
         return ResponseEntity.ok(metricsService.getMetrics());
     }
+
+    @GetMapping("/latency")
+    public ResponseEntity<Map<String, Object>> getLatency(@RequestParam(defaultValue = "20") int limit) {
+        return ResponseEntity.ok(metricsService.getLatencyMetrics(limit));
+    }
 }
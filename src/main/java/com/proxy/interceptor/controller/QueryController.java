@@ -1,14 +1,19 @@
 package com.proxy.interceptor.controller;
 
 import com.proxy.interceptor.dto.ApprovalRequest;
+import com.proxy.interceptor.dto.PendingQueryView;
 import com.proxy.interceptor.dto.VoteRequest;
 import com.proxy.interceptor.model.BlockedQuery;
 import com.proxy.interceptor.service.AuditService;
 import com.proxy.interceptor.service.BlockedQueryService;
+import com.proxy.interceptor.service.PendingQueryReadModel;
 import com.proxy.interceptor.service.ReplayProtectionService;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -24,9 +29,27 @@ public class QueryController {
     private final AuditService auditService;
     private final ReplayProtectionService replayProtectionService;
 
+    /*
+    * Pending queries from the in-memory read model. Conditional on the snapshot's ETag, so a
+    * dashboard polling an unchanged pending set gets a 304.
+     */
     @GetMapping("/blocked")
-    public ResponseEntity<List<BlockedQuery>> getBlockedQueries() {
-        return ResponseEntity.ok(blockedQueryService.getPendingQueries());
+    public ResponseEntity<List<PendingQueryView>> getBlockedQueries(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        PendingQueryReadModel.Snapshot snapshot = blockedQueryService.getPendingSnapshot();
+        // Revalidate on every poll, the set changes at any time
+        CacheControl cacheControl = CacheControl.noCache().cachePrivate();
+        if (ifNoneMatch != null && ifNoneMatch.contains(snapshot.etag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(snapshot.etag())
+                    .cacheControl(cacheControl)
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .eTag(snapshot.etag())
+                .cacheControl(cacheControl)
+                .body(snapshot.queries());
     }
 
     @GetMapping("/blocked/all")
@@ -63,12 +86,8 @@ public class QueryController {
             }
         }
 
-        boolean ok = blockedQueryService.approveQuery(request.id(), username);
-
-        if (ok) {
-            auditService.log(username, "query_approved",
-                    "Query #" + request.id() + "approved", clientIp);
-        }
+        // Audited by the service, which also covers peer approvals
+        boolean ok = blockedQueryService.approveQuery(request.id(), username, clientIp);
 
         return ResponseEntity.ok(Map.of("success", ok));
     }
@@ -93,12 +112,8 @@ public class QueryController {
             }
         }
 
-        boolean ok = blockedQueryService.rejectQuery(request.id(), username);
-
-        if (ok) {
-            auditService.log(username, "query_rejected",
-                    "Query #" + request.id() + "rejected", clientIp);
-        }
+        // Audited by the service, which also covers peer approvals
+        boolean ok = blockedQueryService.rejectQuery(request.id(), username, clientIp);
 
         return ResponseEntity.ok(Map.of("success", ok));
     }
@@ -0,0 +1,115 @@
+package com.proxy.interceptor.dto;
+
+import com.proxy.interceptor.model.Status;
+import com.proxy.interceptor.model.Vote;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+* Authoritative vote tally and resolution state of a pending query.
+*
+* Votes are kept per user in a concurrent map; every change moves the counters by its
+* difference, so concurrent votes never lose an update. The state leaves PENDING exactly once,
+* by compare-and-set: whoever wins resolve() owns the query's outcome, every other approval,
+* rejection, expiry or disconnect backs off.
+*
+* Votes share a read lock and resolve() takes the write lock, so a vote either lands before
+* the resolution or is refused: none is counted on a query that is no longer pending.
+ */
+public final class ApprovalTally {
+
+    private final ConcurrentHashMap<String, Vote> votes = new ConcurrentHashMap<>();
+    private final AtomicInteger approvals = new AtomicInteger();
+    private final AtomicInteger rejections = new AtomicInteger();
+    private final AtomicReference<Status> status = new AtomicReference<>(Status.PENDING);
+    private final ReentrantReadWriteLock resolution = new ReentrantReadWriteLock();
+
+    /*
+    * Record the user's vote and return their previous one, null if this is their first.
+    * Returning the same vote means a duplicate, nothing changed. Throws IllegalStateException
+    * once the query is resolved.
+     */
+    public Vote cast(String username, Vote vote) {
+        resolution.readLock().lock();
+        try {
+            if (status.get() != Status.PENDING) {
+                throw new IllegalStateException("Query already resolved");
+            }
+            Vote previous = votes.put(username, vote);
+            if (previous != vote) {
+                counter(vote).incrementAndGet();
+                if (previous != null) {
+                    counter(previous).decrementAndGet();
+                }
+            }
+            return previous;
+        } finally {
+            resolution.readLock().unlock();
+        }
+    }
+
+    /*
+    * Take back a vote returned by cast, e.g. when it could not be stored. Does nothing if the
+    * user has voted again since.
+     */
+    public void revert(String username, Vote vote, Vote previous) {
+        resolution.readLock().lock();
+        try {
+            boolean reverted = previous == null
+                    ? votes.remove(username, vote)
+                    : votes.replace(username, vote, previous);
+            if (reverted) {
+                counter(vote).decrementAndGet();
+                if (previous != null) {
+                    counter(previous).incrementAndGet();
+                }
+            }
+        } finally {
+            resolution.readLock().unlock();
+        }
+    }
+
+    public int approvals() {
+        return approvals.get();
+    }
+
+    public int rejections() {
+        return rejections.get();
+    }
+
+    public List<String> voters(Vote vote) {
+        return votes.entrySet().stream()
+                .filter(e -> e.getValue() == vote)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    public Status status() {
+        return status.get();
+    }
+
+    public boolean isPending() {
+        return status.get() == Status.PENDING;
+    }
+
+    /*
+    * Move from PENDING to the given outcome. Returns false if the query was already resolved.
+     */
+    public boolean resolve(Status outcome) {
+        resolution.writeLock().lock();
+        try {
+            return status.compareAndSet(Status.PENDING, outcome);
+        } finally {
+            resolution.writeLock().unlock();
+        }
+    }
+
+    private AtomicInteger counter(Vote vote) {
+        return vote == Vote.APPROVE ? approvals : rejections;
+    }
+}
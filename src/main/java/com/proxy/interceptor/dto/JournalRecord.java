@@ -0,0 +1,17 @@
+package com.proxy.interceptor.dto;
+
+import java.time.Instant;
+
+/*
+* A statement as recorded by the query journal. timestamp is when it completed, or was held
+* for approval; latencyNanos is -1 for held statements.
+ */
+public record JournalRecord(
+        Instant timestamp,
+        String connId,
+        String user,
+        long fingerprint,
+        String classification,
+        long latencyNanos,
+        String sql
+) {}
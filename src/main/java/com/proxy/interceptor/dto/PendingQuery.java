@@ -1,16 +1,16 @@
 package com.proxy.interceptor.dto;
 
+import com.proxy.interceptor.service.HeldPayload;
 import io.netty.buffer.ByteBuf;
 
-import java.util.Set;
 import java.util.function.Consumer;
 
 public record PendingQuery(
         Long id,
         String connId,
-        ByteBuf originalMessage,
+        boolean requiresPeerApproval,
+        HeldPayload payload,
         Consumer<ByteBuf> forwardCallback,
         Consumer<String> rejectCallback,
-        Set<String> approvals,
-        Set<String> rejections
+        ApprovalTally tally
 ) {}
@@ -0,0 +1,46 @@
+package com.proxy.interceptor.dto;
+
+import com.proxy.interceptor.model.BlockedQuery;
+import com.proxy.interceptor.model.QueryType;
+import com.proxy.interceptor.model.Status;
+
+import java.time.Instant;
+
+/*
+* Dashboard view of a pending query, the fields of BlockedQuery the pending list shows.
+ */
+public record PendingQueryView(
+        Long id,
+        String connId,
+        QueryType queryType,
+        String queryPreview,
+        Integer blockedStatementIndex,
+        String blockedStatement,
+        Status status,
+        Instant createdAt,
+        boolean requiresPeerApproval,
+        int approvalCount,
+        int rejectionCount
+) {
+
+    public static PendingQueryView of(BlockedQuery query) {
+        return new PendingQueryView(
+                query.getId(),
+                query.getConnId(),
+                query.getQueryType(),
+                query.getQueryPreview(),
+                query.getBlockedStatementIndex(),
+                query.getBlockedStatement(),
+                Status.PENDING,
+                query.getCreatedAt(),
+                query.isRequiresPeerApproval(),
+                0,
+                0
+        );
+    }
+
+    public PendingQueryView withCounts(int approvals, int rejections) {
+        return new PendingQueryView(id, connId, queryType, queryPreview, blockedStatementIndex, blockedStatement,
+                status, createdAt, requiresPeerApproval, approvals, rejections);
+    }
+}
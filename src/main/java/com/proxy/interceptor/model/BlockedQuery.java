@@ -19,8 +19,10 @@ import java.util.Objects;
 @Builder
 public class BlockedQuery {
 
+    // Pooled: one sequence call per 50 ids, so inserts can be batched
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "blocked_queries_seq")
+    @SequenceGenerator(name = "blocked_queries_seq", sequenceName = "blocked_queries_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false)
@@ -33,6 +35,12 @@ public class BlockedQuery {
     @Column(nullable = false, length = 4000)
     private String queryPreview;
 
+    // Statement of a multi-statement query that triggered the hold (0-based)
+    private Integer blockedStatementIndex;
+
+    @Column(length = 4000)
+    private String blockedStatement;
+
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
     @Builder.Default
@@ -0,0 +1,130 @@
+package com.proxy.interceptor.proxy;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+/*
+* Walks the message boundaries of the raw server->client byte stream without copying it.
+*
+* The server leg is not framed, a read can end anywhere inside a message, so the inspector
+* carries the partially read header and the number of body bytes left to skip between reads.
+* Only message headers are looked at: a DataRow costs one jump over its length. The only
+* bodies read are the ReadyForQuery status byte, the CommandComplete tag and BackendKeyData.
+* For a pooled session BackendKeyData is rewritten in place to the session's own cancel key
+* (see BackendPool); the backend's key is kept to redirect cancel requests to it.
+*
+* What it learns is published to the ConnectionState of the session the backend serves.
+* Instances belong to one backend connection and are not thread-safe.
+ */
+public final class BackendMessageInspector {
+
+    private static final int HEADER_LENGTH = 5;
+    // Longest tag kept, e.g. "INSERT 0 1000000"; longer tags are truncated
+    private static final int MAX_TAG_LENGTH = 64;
+    // Process id and secret; longer keys (protocol 3.2) are left alone
+    private static final int KEY_LENGTH = 8;
+
+    private final byte[] header = new byte[HEADER_LENGTH];
+    private int headerFilled;
+    private int bodyRemaining;
+    private int bodyLength;
+    private byte type;
+
+    private long keyRead;
+    private volatile long backendKey;
+
+    private final byte[] tag = new byte[MAX_TAG_LENGTH];
+    private int tagLength;
+
+    // Transaction status of the last ReadyForQuery: 'I' idle, 'T' in transaction, 'E' failed transaction
+    private byte transactionStatus = 'I';
+
+    /*
+    * Inspect the readable bytes of a chunk. Returns the number of ReadyForQuery messages completed in it.
+    * session may be null while a pooled backend is idle.
+     */
+    public int inspect(ByteBuf buf, ConnectionState session) {
+        int readyForQuery = 0;
+        int i = buf.readerIndex();
+        int end = buf.writerIndex();
+
+        while (i < end) {
+            if (bodyRemaining > 0) {
+                int length = Math.min(bodyRemaining, end - i);
+                if (type == 'Z') {
+                    transactionStatus = buf.getByte(i);
+                    readyForQuery++;
+                    if (session != null) {
+                        session.transactionStatus = transactionStatus;
+                    }
+                } else if (type == 'C') {
+                    captureTag(buf, i, length);
+                } else if (type == 'K' && bodyLength == KEY_LENGTH) {
+                    rewriteKey(buf, i, length, session);
+                }
+                i += length;
+                bodyRemaining -= length;
+                if (bodyRemaining == 0 && type == 'C' && session != null) {
+                    session.lastCommandTag = commandTag();
+                }
+                continue;
+            }
+
+            header[headerFilled++] = buf.getByte(i++);
+            if (headerFilled == HEADER_LENGTH) {
+                headerFilled = 0;
+                type = header[0];
+                tagLength = 0;
+                bodyRemaining = ((header[1] & 0xFF) << 24 | (header[2] & 0xFF) << 16
+                        | (header[3] & 0xFF) << 8 | (header[4] & 0xFF)) - 4;
+                bodyLength = bodyRemaining;
+            }
+        }
+        return readyForQuery;
+    }
+
+    // The key may be split across reads, byte k of the body is at from + k - offset
+    private void rewriteKey(ByteBuf buf, int from, int length, ConnectionState session) {
+        int offset = KEY_LENGTH - bodyRemaining;
+        for (int k = offset; k < offset + length; k++) {
+            int shift = (KEY_LENGTH - 1 - k) * 8;
+            keyRead = keyRead << 8 | (buf.getByte(from + k - offset) & 0xFF);
+            if (session != null && session.cancelKey != 0) {
+                buf.setByte(from + k - offset, (int) (session.cancelKey >>> shift));
+            }
+        }
+        if (offset + length == KEY_LENGTH) {
+            backendKey = keyRead;
+        }
+    }
+
+    private void captureTag(ByteBuf buf, int from, int length) {
+        int copy = Math.min(length, MAX_TAG_LENGTH - tagLength);
+        if (copy > 0) {
+            buf.getBytes(from, tag, tagLength, copy);
+            tagLength += copy;
+        }
+    }
+
+    // The tag is a C-string, drop the terminator
+    private String commandTag() {
+        int length = tagLength > 0 && tag[tagLength - 1] == 0 ? tagLength - 1 : tagLength;
+        return new String(tag, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /*
+    * The backend's own BackendKeyData, 0 until it has been sent. Readable from any thread.
+     */
+    public long backendKey() {
+        return backendKey;
+    }
+
+    public byte transactionStatus() {
+        return transactionStatus;
+    }
+
+    public boolean isIdle() {
+        return transactionStatus == 'I';
+    }
+}
@@ -0,0 +1,149 @@
+package com.proxy.interceptor.proxy;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import lombok.extern.slf4j.Slf4j;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/*
+* Transaction-level pool of authenticated backend channels per (user, database).
+*
+* The proxy holds no database credentials, so it never opens pooled backends itself: every
+* client session authenticates through its own backend as usual and then donates it to the
+* pool. From then on the session leases a backend per transaction and returns it on an idle
+* ReadyForQuery.
+*
+* A backend is registered on the event loop of the client that authenticated it and the
+* pool is split per event loop, so a leased backend always shares its client's event loop
+* and all pool state is loop-confined. maxPerKey is divided evenly between the loops.
+*
+* A pooled session's backend changes with every lease, so its client is given a cancel key
+* of the proxy's own instead of the BackendKeyData of the backend it authenticated on. A
+* CancelRequest carrying that key is redirected to whichever backend the session holds.
+ */
+@Slf4j
+public class BackendPool {
+
+    private final int maxPerLoop;
+    private final ConcurrentHashMap<EventLoop, Map<PoolKey, Slot>> loops = new ConcurrentHashMap<>();
+    // Cancel keys handed out to pooled sessions; looked up from any event loop
+    private final ConcurrentHashMap<Long, ConnectionState> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    public BackendPool(int maxPerKey, int eventLoops) {
+        this.maxPerLoop = Math.max(1, (maxPerKey + eventLoops - 1) / eventLoops);
+    }
+
+    private static final class Slot {
+        final ArrayDeque<Channel> idle = new ArrayDeque<>();
+        final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+        int size; // idle + leased
+    }
+
+    private record Waiter(Channel client, Consumer<Channel> onLease) {}
+
+    /*
+    * Take ownership of a freshly authenticated backend. Returns false when the pool is full,
+    * the caller then closes the backend.
+     */
+    public boolean donate(PoolKey key, Channel backend) {
+        Slot slot = slot(key, backend.eventLoop());
+        if (slot.size >= maxPerLoop) {
+            return false;
+        }
+        slot.size++;
+        release(key, backend);
+        return true;
+    }
+
+    /*
+    * Lease a backend for the client, now or once one is released. Must be called on the client's event loop.
+     */
+    public void acquire(PoolKey key, Channel client, Consumer<Channel> onLease) {
+        Slot slot = slot(key, client.eventLoop());
+        Channel backend;
+        while ((backend = slot.idle.pollFirst()) != null) {
+            if (backend.isActive()) {
+                onLease.accept(backend);
+                return;
+            }
+            slot.size--;
+        }
+        if (slot.size == 0) {
+            // Every backend of this key died, nothing will ever be released
+            onLease.accept(null);
+            return;
+        }
+        log.debug("No idle backend for {}@{}, waiting", key.user(), key.database());
+        slot.waiters.add(new Waiter(client, onLease));
+    }
+
+    /*
+    * Return a leased backend. It goes to the longest waiting client, otherwise it is kept idle.
+     */
+    public void release(PoolKey key, Channel backend) {
+        Slot slot = slot(key, backend.eventLoop());
+        Waiter waiter;
+        while ((waiter = slot.waiters.pollFirst()) != null) {
+            if (waiter.client().isActive()) {
+                waiter.onLease().accept(backend);
+                return;
+            }
+        }
+        // LIFO: the most recently used backend has the warmest caches
+        slot.idle.addFirst(backend);
+    }
+
+    /*
+    * A pooled backend closed, idle or leased.
+     */
+    public void remove(PoolKey key, Channel backend) {
+        Slot slot = slot(key, backend.eventLoop());
+        slot.idle.remove(backend);
+        slot.size--;
+        if (slot.size == 0) {
+            Waiter waiter;
+            while ((waiter = slot.waiters.pollFirst()) != null) {
+                waiter.onLease().accept(null);
+            }
+        }
+    }
+
+    /*
+    * Issue a cancel key for a pooled session: process id and secret, as in BackendKeyData.
+     */
+    public long registerSession(ConnectionState session) {
+        while (true) {
+            // A positive process id, 0 is never issued
+            long key = (long) (random.nextInt(Integer.MAX_VALUE - 1) + 1) << 32 | (random.nextInt() & 0xFFFFFFFFL);
+            if (sessions.putIfAbsent(key, session) == null) {
+                return key;
+            }
+        }
+    }
+
+    public void unregisterSession(long key) {
+        sessions.remove(key);
+    }
+
+    /*
+    * The BackendKeyData of the backend the session with this cancel key currently holds, or 0
+    * when there is no such session or it holds no backend - it is not running anything then.
+     */
+    public long backendKey(long key) {
+        ConnectionState session = sessions.get(key);
+        Channel backend = session != null ? session.serverChannel : null;
+        ServerHandler handler = backend != null ? backend.pipeline().get(ServerHandler.class) : null;
+        return handler != null ? handler.backendKey() : 0;
+    }
+
+    private Slot slot(PoolKey key, EventLoop loop) {
+        return loops.computeIfAbsent(loop, l -> new HashMap<>()).computeIfAbsent(key, k -> new Slot());
+    }
+}
@@ -0,0 +1,95 @@
+package com.proxy.interceptor.proxy;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+* Bounded, concurrent cache of classification results keyed by query fingerprint.
+*
+* 4-way set associative. Each slot is a single long holding the fingerprint with its lowest
+* bit replaced by the result, so a lookup is a few volatile reads with no locking and an
+* insert is one CAS. Replacement within a set is CLOCK (second chance), an approximation of
+* LRU that needs no shared ordering structure.
+*
+* Instances are never cleared: a rule change swaps in a new cache together with the new rules.
+ */
+public final class ClassificationCache {
+
+    public static final int MISS = -1;
+    public static final int ALLOWED = 0;
+    public static final int CRITICAL = 1;
+
+    private static final int WAYS = 4;
+    private static final long EMPTY = 0L;
+
+    private final AtomicLongArray slots;
+    private final byte[] referenced; // CLOCK bits, racy updates are harmless
+    private final int setMask;
+
+    public ClassificationCache(int capacity) {
+        int sets = Integer.highestOneBit(Math.max(WAYS, capacity) / WAYS);
+        this.slots = new AtomicLongArray(sets * WAYS);
+        this.referenced = new byte[sets * WAYS];
+        this.setMask = sets - 1;
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+
+    public int get(long fingerprint) {
+        long key = key(fingerprint);
+        int base = setOf(fingerprint);
+        for (int way = 0; way < WAYS; way++) {
+            long slot = slots.get(base + way);
+            if ((slot & ~1L) == key) {
+                referenced[base + way] = 1;
+                return (int) (slot & 1L);
+            }
+        }
+        return MISS;
+    }
+
+    /*
+    * Store a result. Returns true when a live entry had to be evicted to make room.
+     */
+    public boolean put(long fingerprint, int result) {
+        long key = key(fingerprint);
+        long entry = key | result;
+        int base = setOf(fingerprint);
+
+        for (int way = 0; way < WAYS; way++) {
+            long slot = slots.get(base + way);
+            if ((slot & ~1L) == key) {
+                return false; // Raced with another thread classifying the same query
+            }
+            if (slot == EMPTY && slots.compareAndSet(base + way, EMPTY, entry)) {
+                return false;
+            }
+        }
+
+        // Set is full: second chance over the ways, starting at a fingerprint-derived way
+        int start = (int) (fingerprint >>> 62);
+        for (int i = 0; i < 2 * WAYS; i++) {
+            int index = base + ((start + i) & (WAYS - 1));
+            if (referenced[index] != 0) {
+                referenced[index] = 0;
+                continue;
+            }
+            long victim = slots.get(index);
+            if (slots.compareAndSet(index, victim, entry)) {
+                return victim != EMPTY;
+            }
+        }
+        return false; // Heavily contended set, skip caching this time
+    }
+
+    private int setOf(long fingerprint) {
+        return ((int) (fingerprint ^ (fingerprint >>> 32)) & setMask) * WAYS;
+    }
+
+    // Low bit carries the result; a zero key is reserved for empty slots
+    private static long key(long fingerprint) {
+        long key = fingerprint & ~1L;
+        return key == EMPTY ? 2L : key;
+    }
+}
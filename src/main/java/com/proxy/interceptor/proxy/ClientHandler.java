@@ -1,15 +1,18 @@
 package com.proxy.interceptor.proxy;
 
 import com.proxy.interceptor.service.BlockedQueryService;
+import com.proxy.interceptor.service.LatencyHistogram;
 import com.proxy.interceptor.service.MetricsService;
+import com.proxy.interceptor.service.QueryJournal;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
 import io.netty.channel.socket.SocketChannel;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public class ClientHandler extends ChannelInboundHandlerAdapter {
@@ -23,7 +26,17 @@ public class ClientHandler extends ChannelInboundHandlerAdapter {
     private final BlockedQueryService blockedQueryService;
     private final MetricsService metricsService;
     private final EventLoopGroupFactory eventLoopGroupFactory;
+    private final WriteBufferWaterMark serverWaterMark;
+    private final int preConnectLimit;
+    private final int holdQueueLimit;
+    private final BackendPool backendPool; // null unless transaction pooling is enabled
+    private final WarmConnectionPool warmPool; // null unless warm connections are enabled
+    private final QueryJournal journal; // null unless the query journal is enabled
+    private final LatencyHistogram simpleLatency;
+    private final LatencyHistogram extendedLatency;
+    private PoolKey poolKey; // set once the session is known to be poolable
     private Channel clientChannel;
+    private ChannelHandlerContext ctx;
     private ConcurrentHashMap<String, ConnectionState> connections = new ConcurrentHashMap<>();
 
     public ClientHandler(String connId,
@@ -35,6 +48,12 @@ public class ClientHandler extends ChannelInboundHandlerAdapter {
                          BlockedQueryService blockedQueryService,
                          MetricsService metricsService,
                          EventLoopGroupFactory eventLoopGroupFactory,
+                         WriteBufferWaterMark serverWaterMark,
+                         int preConnectLimit,
+                         int holdQueueLimit,
+                         BackendPool backendPool,
+                         WarmConnectionPool warmPool,
+                         QueryJournal journal,
                          Channel clientChannel,
                          ConcurrentHashMap<String, ConnectionState> connections
     ) {
@@ -47,6 +66,14 @@ public class ClientHandler extends ChannelInboundHandlerAdapter {
         this.blockedQueryService = blockedQueryService;
         this.metricsService = metricsService;
         this.eventLoopGroupFactory = eventLoopGroupFactory;
+        this.serverWaterMark = serverWaterMark;
+        this.preConnectLimit = preConnectLimit;
+        this.holdQueueLimit = holdQueueLimit;
+        this.backendPool = backendPool;
+        this.warmPool = warmPool;
+        this.journal = journal;
+        this.simpleLatency = metricsService.queryTypeLatency("SIMPLE");
+        this.extendedLatency = metricsService.queryTypeLatency("EXTENDED");
         this.clientChannel = clientChannel;
         this.connections = connections;
     }
@@ -55,72 +82,383 @@ public class ClientHandler extends ChannelInboundHandlerAdapter {
     * Connection lifecycle
      */
     @Override
-    public void channelActive(ChannelHandlerContext ctx) {
-        clientChannel = ctx.channel();
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    /*
+    * Connect to the PostgreSQL db engine and forward the client's StartupMessage.
+    * Messages the client sends meanwhile are queued and replayed in order once connected.
+     */
+    void connect(ByteBuf startupMessage) {
+        if (backendPool != null && !redirectCancelRequest(startupMessage)) {
+            // Not a pooled session's key, or the session holds no backend: nothing to cancel
+            startupMessage.release();
+            ctx.close();
+            return;
+        }
+        state.inFlight.add(System.nanoTime(), null, null, null); // The ReadyForQuery that ends authentication
+        if (backendPool != null || journal != null) {
+            Map<String, String> parameters = protocolHandler.startupParameters(startupMessage);
+            state.user = parameters.get("user");
+            // CancelRequest and the like carry no user and are never pooled
+            if (backendPool != null && state.user != null) {
+                poolKey = PoolKey.of(parameters);
+                state.cancelKey = backendPool.registerSession(state);
+            }
+        }
+
+        ServerHandler serverHandler = new ServerHandler(connId, state, clientChannel, metricsService,
+                backendPool, poolKey);
 
-        // Connect to the PostgreSQL db engine
-        Bootstrap b= new Bootstrap();
-        b.group(ctx.channel().eventLoop())
+        Channel warm = warmPool != null ? warmPool.poll(clientChannel.eventLoop(), serverHandler) : null;
+        if (warm != null) {
+            log.debug("{}: Using warm backend connection", connId);
+            onServerConnected(warm, startupMessage);
+            return;
+        }
+
+        Bootstrap b = new Bootstrap();
+        b.group(clientChannel.eventLoop())
                 .channel(eventLoopGroupFactory.getSocketChannelClass())
                 .option(ChannelOption.SO_KEEPALIVE, true)
                 .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, serverWaterMark)
                 .handler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel ch) {
-                        ch.pipeline().addLast(
-                                new ServerHandler(connId, clientChannel, metricsService)
-                        );
+                        ch.pipeline().addLast(serverHandler);
                     }
                 });
 
         b.connect(targetHost, targetPort).addListener((ChannelFutureListener) future -> {
-            if (future.isSuccess()) {
-                state.serverChannel = future.channel();
+            if (future.isSuccess() && !clientChannel.isActive()) {
+                // Client went away while connecting
+                startupMessage.release();
+                future.channel().close();
+            } else if (future.isSuccess()) {
                 log.debug("{}: Connected to PostgreSQL db engine", connId);
+                onServerConnected(future.channel(), startupMessage);
             } else {
                 log.error("{}: Failed to connect to PostgreSQL", connId);
+                startupMessage.release();
+                state.releaseQueuedMessages();
                 metricsService.trackError();
-                sendErrorToClient(ctx, "Failed to connect to db engine");
+                ctx.writeAndFlush(protocolHandler.createErrorResponse("Failed to connect to server"));
                 ctx.close();
             }
         });
     }
 
+    /*
+    * A pooled client's cancel key is the proxy's (see BackendPool): point a CancelRequest at
+    * the backend its session holds right now. Returns false if there is nothing to cancel.
+    * Any other startup packet is left alone.
+     */
+    private boolean redirectCancelRequest(ByteBuf startupMessage) {
+        int start = startupMessage.readerIndex();
+        if (startupMessage.readableBytes() != 16
+                || startupMessage.getInt(start + 4) != PostgresFrameDecoder.CANCEL_REQUEST_CODE) {
+            return true;
+        }
+        long backendKey = backendPool.backendKey(startupMessage.getLong(start + 8));
+        if (backendKey == 0) {
+            return false;
+        }
+        startupMessage.setLong(start + 8, backendKey);
+        return true;
+    }
+
+    private void onServerConnected(Channel serverChannel, ByteBuf startupMessage) {
+        state.serverChannel = serverChannel;
+        serverChannel.write(startupMessage, serverChannel.voidPromise());
+        state.serverFlushPending = true;
+        drainPreConnectQueue();
+    }
+
+    /*
+    * Transaction pooling
+    * After authentication the session's backend is donated to the pool (see ServerHandler).
+    * Client messages then wait in the pre-connect queue until a backend is leased, with
+    * client reads paused meanwhile: the wait is bounded by the pool, not by a byte limit.
+     */
+    private void acquireBackend() {
+        if (!state.awaitingBackend) {
+            state.awaitingBackend = true;
+            backendPool.acquire(poolKey, clientChannel, this::onBackendLeased);
+        }
+    }
+
+    private void onBackendLeased(Channel backend) {
+        state.awaitingBackend = false;
+        if (backend == null) {
+            log.error("{}: No backend connection available for {}@{}", connId, poolKey.user(), poolKey.database());
+            metricsService.trackError();
+            state.releaseQueuedMessages();
+            ctx.writeAndFlush(protocolHandler.createErrorResponse("No backend connection available"));
+            ctx.close();
+            return;
+        }
+        if (!clientChannel.isActive()) {
+            backendPool.release(poolKey, backend);
+            return;
+        }
+
+        log.debug("{}: Leased pooled backend", connId);
+        backend.pipeline().get(ServerHandler.class).bind(connId, state, clientChannel);
+        state.serverChannel = backend;
+        state.unsyncedWrites = false;
+
+        ByteBuf approved;
+        while ((approved = state.approvedQueue.poll()) != null) {
+            writeApproved(approved);
+        }
+        drainPreConnectQueue();
+        resumeLeaseReads();
+
+        // Everything queued may have been held for approval, nothing to wait for then
+        backend.pipeline().get(ServerHandler.class).releaseIfIdle();
+    }
+
+    private void drainPreConnectQueue() {
+        ByteBuf buf;
+        while ((buf = state.preConnectQueue.poll()) != null) {
+            try {
+                processClientMessage(ctx, buf);
+            } finally {
+                buf.release();
+            }
+        }
+        state.preConnectBytes = 0;
+        flushServer();
+        if (!state.serverChannel.isWritable()) {
+            pauseClientReads(ctx);
+        }
+    }
+
+    private void pauseForLease(ByteBuf buf) {
+        state.preConnectQueue.add(buf.retain());
+        if (state.leaseReadsPausedAt == 0) {
+            state.leaseReadsPausedAt = System.nanoTime();
+            clientChannel.config().setAutoRead(false);
+        }
+        acquireBackend();
+    }
+
+    private void resumeLeaseReads() {
+        if (state.leaseReadsPausedAt != 0) {
+            metricsService.trackBackpressure("lease", System.nanoTime() - state.leaseReadsPausedAt);
+            state.leaseReadsPausedAt = 0;
+            // Still paused if the server leg is unwritable or the hold queue is over budget
+            if (state.clientReadsPausedAt == 0 && state.holdReadsPausedAt == 0) {
+                clientChannel.config().setAutoRead(true);
+            }
+        }
+    }
+
+    private void enqueuePreConnect(ByteBuf buf) {
+        if (state.preConnectBytes + buf.readableBytes() > preConnectLimit) {
+            log.warn("{}: More than {} bytes sent before the server connection was ready", connId, preConnectLimit);
+            metricsService.trackError();
+            state.releaseQueuedMessages();
+            ctx.writeAndFlush(protocolHandler.createErrorResponse("Too much data sent before the server connection was established"));
+            ctx.close();
+            return;
+        }
+        log.debug("{}: Server not connected yet, queueing message", connId);
+        state.preConnectBytes += buf.readableBytes();
+        state.preConnectQueue.add(buf.retain());
+    }
+
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
         ByteBuf buf = (ByteBuf) msg;
 
         try {
-            // Wait for server connection to be established
-            if (state.serverChannel == null || !state.serverChannel.isActive()) {
-                log.debug("{}: Server not connected yet, buffering message", connId);
-                scheduleForward(ctx, buf.retain());
-                return;
-            }
-            processClientMessage(ctx, buf);
+            readClientMessage(ctx, buf);
         } finally {
             buf.release();
         }
     }
 
+    private void readClientMessage(ChannelHandlerContext ctx, ByteBuf buf) {
+        if (state.authenticated && buf.readableBytes() > 0 && buf.getByte(buf.readerIndex()) == 'X') {
+            // Terminate ends the client session, never the shared backend
+            ctx.close();
+            return;
+        }
+
+        // Nothing overtakes a query awaiting approval
+        if (state.holding) {
+            holdMessage(ctx, buf);
+            return;
+        }
+
+        // Wait for server connection to be established (or, when pooling, for a backend lease)
+        if (state.serverChannel == null) {
+            if (state.authenticated) {
+                pauseForLease(buf);
+            } else {
+                enqueuePreConnect(buf);
+            }
+            return;
+        }
+        processClientMessage(ctx, buf);
+        if (state.serverFlushBoundary) {
+            flushServer();
+        }
+        if (!state.serverChannel.isWritable()) {
+            pauseClientReads(ctx);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        // Anything written without reaching a boundary (startup/auth replies, COPY data) goes out now
+        flushServer();
+        ctx.fireChannelReadComplete();
+    }
+
+    /*
+    * Backpressure
+    * The server is not keeping up with what the client sends (e.g. a large COPY), stop reading
+    * from the client until ServerHandler sees the server leg writable again.
+     */
+    private void pauseClientReads(ChannelHandlerContext ctx) {
+        if (state.clientReadsPausedAt == 0) {
+            log.debug("{}: Server leg unwritable, pausing client reads", connId);
+            state.clientReadsPausedAt = System.nanoTime();
+            ctx.channel().config().setAutoRead(false);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        // Client leg drained below its low water mark, resume reading from the server
+        if (ctx.channel().isWritable() && state.serverReadsPausedAt != 0) {
+            log.debug("{}: Client leg writable, resuming server reads", connId);
+            metricsService.trackBackpressure("client", System.nanoTime() - state.serverReadsPausedAt);
+            state.serverReadsPausedAt = 0;
+            if (state.serverChannel != null) {
+                state.serverChannel.config().setAutoRead(true);
+            }
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    /*
+    * Hold queue
+    * While a query awaits approval, everything the client sends after it is parked in arrival
+    * order: the session is not reordered and nothing reaches the backend behind the held query.
+    * Over the memory budget, client reads pause until the hold is resolved.
+     */
+    private void holdMessage(ChannelHandlerContext ctx, ByteBuf buf) {
+        state.holdQueue.add(buf.retain());
+        state.holdQueueBytes += buf.readableBytes();
+        if (state.holdQueueBytes > holdQueueLimit && state.holdReadsPausedAt == 0) {
+            log.debug("{}: {} bytes parked behind a held query, pausing client reads", connId, state.holdQueueBytes);
+            state.holdReadsPausedAt = System.nanoTime();
+            ctx.channel().config().setAutoRead(false);
+        }
+    }
+
+    /*
+    * The held query was approved and written: replay the parked messages in order, until one
+    * of them is held in turn.
+     */
+    private void releaseHold() {
+        state.holding = false;
+        if (!clientChannel.isActive()) {
+            return;
+        }
+        ByteBuf buf;
+        while (!state.holding && (buf = state.holdQueue.poll()) != null) {
+            state.holdQueueBytes -= buf.readableBytes();
+            try {
+                readClientMessage(ctx, buf);
+            } finally {
+                buf.release();
+            }
+        }
+        flushServer();
+        resumeHeldReads();
+    }
+
+    /*
+    * The held query was rejected: answer it, then discard the parked messages. Every parked
+    * Query or Sync still gets an error and a ReadyForQuery, so a pipelining client is not left
+    * waiting on them.
+     */
+    private void rejectHeld(ChannelHandlerContext ctx, String error,
+                            Map<String, PreparedStatementInfo> parsed, Map<String, PreparedStatementInfo> replaced) {
+        state.holding = false;
+        if (parsed != null) {
+            restoreStatements(parsed, replaced);
+        }
+        sendErrorToClient(ctx, error);
+
+        boolean terminate = false;
+        ByteBuf buf;
+        while ((buf = state.holdQueue.poll()) != null) {
+            try {
+                char type = protocolHandler.peekMessageType(buf);
+                if (type == 'Q' || type == 'S') {
+                    sendErrorToClient(ctx, "Query discarded, an earlier query was rejected");
+                } else if (type == 'X') {
+                    terminate = true;
+                }
+            } finally {
+                buf.release();
+            }
+        }
+        state.holdQueueBytes = 0;
+        resumeHeldReads();
+        if (terminate) {
+            ctx.close();
+        }
+    }
+
+    private void resumeHeldReads() {
+        if (state.holdReadsPausedAt != 0 && state.holdQueueBytes <= holdQueueLimit) {
+            log.debug("{}: Hold queue within budget, resuming client reads", connId);
+            metricsService.trackBackpressure("hold", System.nanoTime() - state.holdReadsPausedAt);
+            state.holdReadsPausedAt = 0;
+            // Still paused if the server leg is unwritable or a backend lease is awaited
+            if (state.clientReadsPausedAt == 0 && state.leaseReadsPausedAt == 0) {
+                clientChannel.config().setAutoRead(true);
+            }
+        }
+    }
+
     /*
     * Message Processing
      */
 
     private void processClientMessage(ChannelHandlerContext ctx, ByteBuf buf) {
+        // Replaying a queue can run into a query that gets held, the rest waits behind it
+        if (state.holding) {
+            holdMessage(ctx, buf);
+            return;
+        }
         if (buf.readableBytes() < 1) {
-            forwardToServer(buf.retain());
+            writeToServer(buf.retain());
             return;
         }
 
         byte messageType = buf.getByte(buf.readerIndex());
+        if (protocolHandler.isFlushBoundary(messageType)) {
+            state.serverFlushBoundary = true;
+        }
 
         switch (messageType) {
             case 'Q' -> handleSimpleQuery(ctx, buf);
             case 'P' -> handleParseMessage(buf);
             case 'S' -> handleSyncMessage(ctx, buf);
-            case 'B', 'D', 'E' -> handleExtendedProtocolMessage(buf);
-            default -> forwardToServer(buf.retain());
+            case 'B' -> handleBindMessage(buf);
+            case 'C' -> handleCloseMessage(buf);
+            case 'D', 'E', 'H' -> handleExtendedProtocolMessage(buf);
+            default -> writeToServer(buf.retain());
         }
     }
 
@@ -128,119 +466,371 @@ public class ClientHandler extends ChannelInboundHandlerAdapter {
     * Simple Query
      */
     private void handleSimpleQuery(ChannelHandlerContext ctx, ByteBuf buf) {
-        var simpleQuery = protocolHandler.parseSimpleQuery(buf.duplicate());
-        if (simpleQuery.isPresent()) {
-            String sql = simpleQuery.get();
+        long receivedAt = System.nanoTime();
+        int end = protocolHandler.simpleQueryEnd(buf);
+        if (end >= 0) {
+            int start = protocolHandler.simpleQueryStart(buf);
             metricsService.trackQuery("SIMPLE");
+            long fingerprint = sqlClassifier.fingerprint(buf, start, end);
+            if (poolKey != null && !state.pinned && sqlClassifier.changesSessionState(buf, start, end)) {
+                pin("session state");
+            }
 
-            if (sqlClassifier.shouldBlock(sql)) {
-                log.info("{}: 🚫BLOCKED Simple Query: {}", connId, truncate(sql));
+            // Each statement is classified on its own; null means all of them are allowed
+            StatementMatch blocking = sqlClassifier.findBlockingStatement(buf, start, end, fingerprint);
+            if (blocking != null) {
+                // Only blocked queries are decoded, they need to be persisted
+                String sql = protocolHandler.readSql(buf, start, end);
+                String statement = protocolHandler.readSql(buf, blocking.start(), blocking.end());
+                log.info("{}: 🚫BLOCKED Simple Query (statement {}): {}", connId, blocking.index(), truncate(statement));
                 metricsService.trackBlocked();
+                if (journal != null) {
+                    journal.entry(connId, state.user, fingerprint, Classification.CRITICAL.name(), buf, start, end).held();
+                }
 
                 blockedQueryService.addBlockedQuery(
                         connId,
                         "SIMPLE",
                         sql,
+                        blocking.index(),
+                        statement,
                         buf.retainedDuplicate(),
-                        this::forwardToServer,
-                        error -> sendErrorToClient(ctx, error)
+                        clientChannel,
+                        this::forwardApproved,
+                        error -> clientChannel.eventLoop().execute(() -> rejectHeld(ctx, error, null, null))
                 );
+                state.holding = true;
                 return;
             }
+            state.requestLatency = queryLatency(buf, start, end, fingerprint);
+            if (journal != null) {
+                state.requestJournal = journal.entry(connId, state.user, fingerprint,
+                        Classification.ALLOWED.name(), buf, start, end);
+            }
         }
-        forwardToServer(buf.retain());
+        state.requestStartedAt = receivedAt;
+        writeToServer(buf.retain());
+    }
+
+    /*
+    * Latency histogram of a query shape, registered with its text the first time it is seen.
+     */
+    private LatencyHistogram queryLatency(ByteBuf buf, int start, int end, long fingerprint) {
+        LatencyHistogram latency = metricsService.queryLatency(fingerprint);
+        if (latency == null && metricsService.canTrackQueryLatency()) {
+            latency = metricsService.registerQueryLatency(fingerprint, protocolHandler.readSql(buf, start, end));
+        }
+        return latency;
+    }
+
+    private QueryJournal.Entry journalEntry(PreparedStatementInfo info) {
+        if (journal == null || info.sql() == null) {
+            return null;
+        }
+        return journal.entry(connId, state.user, info.fingerprint(), info.classification().name(), info.sql());
     }
 
     /*
     * Extended Query
      */
     private void handleParseMessage(ByteBuf buf) {
-        var extendedQuery = protocolHandler.parseExtendedQuery(buf.duplicate());
-        if (extendedQuery.isPresent()) {
-            String sql = extendedQuery.get();
-
-            if (sqlClassifier.shouldBlock(sql)) {
-                log.debug("{}: Starting blocked extended batch", connId);
-                state.inExtendedBatch = true;
-                state.batchQuery = new StringBuilder(sql);
-                state.batchBuffers.add(buf.retainedDuplicate());
-                return;
+        String name = protocolHandler.parseStatementName(buf);
+        if (name == null) {
+            // Malformed, the server will reject it
+            handleExtendedProtocolMessage(buf);
+            return;
+        }
+
+        int start = protocolHandler.extendedQueryStart(buf);
+        int end = protocolHandler.cStringEnd(buf, start);
+        if (poolKey != null && !state.pinned) {
+            if (!name.isEmpty()) {
+                pin("named prepared statement");
+            } else if (end >= 0 && sqlClassifier.changesSessionState(buf, start, end)) {
+                pin("session state");
             }
         }
-        forwardToServer(buf.retain());
+        PreparedStatementInfo info = PreparedStatementInfo.allowed(null, null, 0);
+        if (end >= 0) {
+            long fingerprint = sqlClassifier.fingerprint(buf, start, end);
+            LatencyHistogram latency = queryLatency(buf, start, end, fingerprint);
+            info = sqlClassifier.shouldBlock(buf, start, end, fingerprint)
+                    ? PreparedStatementInfo.critical(protocolHandler.readSql(buf, start, end), latency, fingerprint)
+                    : PreparedStatementInfo.allowed(journal != null ? protocolHandler.readSql(buf, start, end) : null,
+                            latency, fingerprint);
+        }
+
+        // Re-parsing a name replaces it, as it does on the server for the unnamed statement
+        PreparedStatementInfo replaced = state.preparedStatements.put(name, info);
+
+        if (info.isCritical()) {
+            holdInBatch(info.sql());
+        }
+        if (state.inExtendedBatch) {
+            if (!state.batchStatements.containsKey(name)) {
+                state.batchReplaced.put(name, replaced);
+            }
+            state.batchStatements.put(name, info);
+        } else {
+            state.requestLatency = info.latency();
+        }
+        handleExtendedProtocolMessage(buf);
+    }
+
+    /*
+    * Bind to a statement that requires approval starts a held batch, so every later
+    * execution of a critical prepared statement is held, not just the first one.
+     */
+    private void handleBindMessage(ByteBuf buf) {
+        if (!state.inExtendedBatch) {
+            String name = protocolHandler.bindStatementName(buf);
+            PreparedStatementInfo info = name == null ? null : state.preparedStatements.get(name);
+            if (info == null && name != null && poolKey != null && !state.pinned) {
+                // Parsed on a backend this session no longer holds; this one may have another
+                // session's statement under that name
+                failBatch("Prepared statement \"" + name + "\" does not exist on this pooled connection, parse it again");
+            } else if (info != null && info.isCritical()) {
+                log.debug("{}: Bind to held prepared statement '{}'", connId, name);
+                holdInBatch(info.sql());
+            } else if (info != null) {
+                // The execution is what gets timed, attribute it to the bound statement
+                state.requestLatency = info.latency();
+                // Journaled per execution, a Parse alone runs nothing
+                state.requestJournal = journalEntry(info);
+            }
+        }
+        handleExtendedProtocolMessage(buf);
+    }
+
+    private void handleCloseMessage(ByteBuf buf) {
+        // A Close inside a held batch only takes effect once the batch is approved
+        if (!state.inExtendedBatch) {
+            String name = protocolHandler.closeStatementName(buf);
+            if (name != null) {
+                state.preparedStatements.remove(name);
+            }
+        }
+        handleExtendedProtocolMessage(buf);
+    }
+
+    /*
+    * Answer the current extended batch with an error at its Sync, without sending any of it.
+     */
+    private void failBatch(String error) {
+        holdInBatch("");
+        state.batchError = error;
+    }
+
+    private void holdInBatch(String sql) {
+        if (state.inExtendedBatch) {
+            state.batchQuery.append("; ").append(sql);
+            return;
+        }
+        log.debug("{}: Starting blocked extended batch", connId);
+        state.inExtendedBatch = true;
+        state.requestLatency = null;
+        state.requestJournal = null;
+        state.batchQuery = new StringBuilder(sql);
     }
 
     private void handleExtendedProtocolMessage(ByteBuf buf) {
         if (state.inExtendedBatch) {
             state.batchBuffers.add(buf.retainedDuplicate());
         } else {
-            forwardToServer(buf.retain());
+            writeToServer(buf.retain());
         }
     }
 
     private void handleSyncMessage(ChannelHandlerContext ctx, ByteBuf buf) {
         if (!state.inExtendedBatch) {
-            forwardToServer(buf.retain());
+            writeToServer(buf.retain());
             return;
         }
 
         state.batchBuffers.add(buf.retainedDuplicate());
+        if (state.batchError != null) {
+            String error = state.batchError;
+            log.info("{}: Extended batch refused: {}", connId, error);
+            restoreStatements(state.batchStatements, state.batchReplaced);
+            state.resetBatch();
+            sendErrorToClient(ctx, error);
+            return;
+        }
         String sql = state.batchQuery.toString();
 
         log.info("{}: 🚫BLOCKED Extended Query: {}", connId, truncate(sql));
         metricsService.trackQuery("EXTENDED");
         metricsService.trackBlocked();
+        if (journal != null) {
+            // A batch has no single fingerprint
+            journal.entry(connId, state.user, 0, Classification.CRITICAL.name(), sql).held();
+        }
 
         ByteBuf combinedBuf = ctx.alloc().compositeBuffer()
                 .addComponents(true, state.batchBuffers.toArray(new ByteBuf[0]));
 
+        Map<String, PreparedStatementInfo> parsed = Map.copyOf(state.batchStatements);
+        Map<String, PreparedStatementInfo> replaced = new HashMap<>(state.batchReplaced); // may hold nulls
+
         state.inExtendedBatch = false;
         state.batchQuery = new StringBuilder();
         state.batchBuffers.clear();
+        state.batchStatements.clear();
+        state.batchReplaced.clear();
 
         blockedQueryService.addBlockedQuery(
                 connId,
                 "EXTENDED",
                 sql,
+                0,
+                sql,
                 combinedBuf,
-                this::forwardToServer,
-                error -> sendErrorToClient(ctx, error)
+                clientChannel,
+                this::forwardApproved,
+                error -> clientChannel.eventLoop().execute(() -> rejectHeld(ctx, error, parsed, replaced))
         );
+        state.holding = true;
+    }
+
+    /*
+    * The statements parsed in a rejected batch never reached the server, which still has what
+    * they replaced: put those entries back, so e.g. a Bind to an earlier critical unnamed
+    * statement is still held. Entries that were re-parsed since are left alone.
+     */
+    private void restoreStatements(Map<String, PreparedStatementInfo> parsed,
+                                   Map<String, PreparedStatementInfo> replaced) {
+        parsed.forEach((name, info) -> {
+            PreparedStatementInfo previous = replaced.get(name);
+            if (previous == null) {
+                state.preparedStatements.remove(name, info);
+            } else {
+                state.preparedStatements.replace(name, info, previous);
+            }
+        });
+    }
+
+    private void pin(String reason) {
+        log.debug("{}: Pinned to its backend ({})", connId, reason);
+        state.pinned = true;
     }
 
     /*
     * Forwarding helpers
+    * Messages from the client are written as they are processed and flushed once per protocol
+    * boundary (Sync, Flush, Query, ...) or at the end of the read, so an extended-protocol
+    * round trip costs one flush instead of one per message.
      */
-    private void forwardToServer(ByteBuf buf) {
+    private void writeToServer(ByteBuf buf) {
+        trackSyncPoint(buf);
         if (state.serverChannel != null && state.serverChannel.isActive()) {
-            state.serverChannel.writeAndFlush(buf);
+            state.serverChannel.write(buf, state.serverChannel.voidPromise());
+            state.serverFlushPending = true;
         } else {
             buf.release(); // prevent leak if server not available
             log.warn("{}: Cannot forward - server channel inactive", connId);
         }
     }
 
-    private void scheduleForward(ChannelHandlerContext ctx, ByteBuf buf) {
-        ctx.channel().eventLoop().schedule(() -> {
-            if (state.serverChannel != null && state.serverChannel.isActive()) {
-                try {
-                    processClientMessage(ctx, buf);
-                } finally {
-                    buf.release();
+    private void flushServer() {
+        state.serverFlushBoundary = false;
+        if (state.serverFlushPending) {
+            state.serverFlushPending = false;
+            if (state.serverChannel != null) {
+                state.serverChannel.flush();
+                metricsService.trackFlush("server");
+            }
+        }
+    }
+
+    /*
+    * Count what the backend will answer with a ReadyForQuery and note what is in flight.
+    * ServerHandler settles the count as ReadyForQuery messages arrive; a pooled backend is
+    * only returned once the session has nothing outstanding on it.
+     */
+    private void trackSyncPoint(ByteBuf buf) {
+        if (buf.readableBytes() < 1) {
+            return;
+        }
+        switch (buf.getByte(buf.readerIndex())) {
+            case 'Q' -> {
+                startCommand("SIMPLE");
+                addInFlight(simpleLatency);
+            }
+            case 'S' -> {
+                state.unsyncedWrites = false;
+                addInFlight(extendedLatency);
+            }
+            case 'P', 'B', 'D', 'E', 'C', 'H' -> {
+                if (!state.unsyncedWrites) {
+                    state.unsyncedWrites = true;
+                    state.requestStartedAt = System.nanoTime();
                 }
-            } else if (ctx.channel().isActive()) {
-                scheduleForward(ctx, buf);
+                startCommand("EXTENDED");
+            }
+            default -> { }
+        }
+    }
+
+    private void addInFlight(LatencyHistogram typeLatency) {
+        long startedAt = state.requestStartedAt != 0 ? state.requestStartedAt : System.nanoTime();
+        state.inFlight.add(startedAt, typeLatency, state.requestLatency, state.requestJournal);
+        state.requestLatency = null;
+        state.requestJournal = null;
+        state.requestStartedAt = 0;
+    }
+
+    private void startCommand(String type) {
+        if (state.inFlightCommand == null) {
+            state.inFlightCommand = type;
+            state.inFlightSince = System.nanoTime();
+        }
+    }
+
+    /*
+    * An approved query or extended batch, it ends with exactly one Query or Sync.
+     */
+    private void writeApproved(ByteBuf buf) {
+        boolean simple = protocolHandler.peekMessageType(buf) == 'Q';
+        state.unsyncedWrites = false;
+        startCommand(simple ? "SIMPLE" : "EXTENDED");
+        // Timed from release, the approval wait is not query latency
+        state.inFlight.add(System.nanoTime(), simple ? simpleLatency : extendedLatency, null, null);
+        forwardToServer(buf);
+    }
+
+    /*
+    * Forward a message outside of the read path, e.g. an approved query.
+    * Request accounting is confined to the event loop.
+     */
+    private void forwardApproved(ByteBuf buf) {
+        clientChannel.eventLoop().execute(() -> {
+            if (state.serverChannel != null) {
+                writeApproved(buf);
+            } else if (state.authenticated && clientChannel.isActive()) {
+                state.approvedQueue.add(buf);
+                acquireBackend();
             } else {
                 buf.release();
             }
-        }, 10, TimeUnit.MILLISECONDS);
+            releaseHold();
+        });
+    }
+
+    private void forwardToServer(ByteBuf buf) {
+        if (state.serverChannel != null && state.serverChannel.isActive()) {
+            state.serverChannel.writeAndFlush(buf);
+        } else {
+            buf.release(); // prevent leak if server not available
+            log.warn("{}: Cannot forward - server channel inactive", connId);
+        }
     }
 
     private void sendErrorToClient(ChannelHandlerContext ctx, String message) {
         if (!ctx.channel().isActive()) return;
 
         ByteBuf error = protocolHandler.createErrorResponse(message);
-        ByteBuf ready = protocolHandler.createReadyForQuery();
+        // The rejected query never reached the server, its transaction state is unchanged
+        ByteBuf ready = protocolHandler.createReadyForQuery(state.transactionStatus);
         ctx.write(error);
         ctx.writeAndFlush(ready);
     }
@@ -255,9 +845,19 @@ public class ClientHandler extends ChannelInboundHandlerAdapter {
         metricsService.trackDisconnection();
         blockedQueryService.cleanupConnection(connId);
         state.resetBatch();
+        state.releaseQueuedMessages();
+        state.preparedStatements.clear();
+        if (state.cancelKey != 0) {
+            backendPool.unregisterSession(state.cancelKey);
+        }
 
-        if (state.serverChannel != null) {
-            state.serverChannel.close();
+        Channel backend = state.serverChannel;
+        if (backend != null) {
+            // A pooled backend survives the session if it is idle, anything else is closed
+            ServerHandler serverHandler = backend.pipeline().get(ServerHandler.class);
+            if (!state.authenticated || serverHandler == null || !serverHandler.releaseIfIdle()) {
+                backend.close();
+            }
         }
     }
 
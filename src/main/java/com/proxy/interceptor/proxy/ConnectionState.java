@@ -1,10 +1,15 @@
 package com.proxy.interceptor.proxy;
 
+import com.proxy.interceptor.service.LatencyHistogram;
+import com.proxy.interceptor.service.QueryJournal;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ConnectionState {
 
@@ -14,15 +19,74 @@ public class ConnectionState {
     public volatile boolean inExtendedBatch = false;
     public volatile boolean sslNegotiated = false;
 
+    // System.nanoTime() when reads on the client / server leg were suspended for backpressure,
+    // 0 while reading. Only touched from the connection's event loop.
+    public long clientReadsPausedAt;
+    public long serverReadsPausedAt;
+
+    // Flush coalescing: writes not yet flushed per leg, and whether the client sent a boundary
+    // message (Sync, Flush, Query, ...) in the current read. Event loop only.
+    public boolean serverFlushPending;
+    public boolean serverFlushBoundary;
+    public boolean clientFlushPending;
+
     public StringBuilder batchQuery = new StringBuilder();
     public List<ByteBuf> batchBuffers = new ArrayList<>();
 
+    // Client messages received before the server connection completed, replayed in order by the
+    // connect listener. Event loop only.
+    public final ArrayDeque<ByteBuf> preConnectQueue = new ArrayDeque<>();
+    public int preConnectBytes;
+
+    // Backend session state, tracked from both streams (see BackendMessageInspector).
+    // Written on the event loop, readable from anywhere.
+    public volatile byte transactionStatus = 'I';   // of the last ReadyForQuery: I, T or E
+    public volatile String lastCommandTag;          // of the last CommandComplete, e.g. "UPDATE 3"
+    public volatile String inFlightCommand;         // "SIMPLE" or "EXTENDED" while a request is outstanding
+    public volatile long inFlightSince;             // System.nanoTime() when it was sent
+    public boolean unsyncedWrites;       // extended-protocol messages sent without a closing Sync
+
+    // Requests the backend still owes a ReadyForQuery for, with their latency histograms.
+    // The fields below describe the request being written until its Query or Sync. Event loop only.
+    public final InFlightRequests inFlight = new InFlightRequests();
+    public LatencyHistogram requestLatency;  // per-fingerprint histogram, null if not tracked
+    public long requestStartedAt;            // client receipt of the Query or first extended message
+    public QueryJournal.Entry requestJournal; // null unless the query journal is enabled
+
+    // Transaction pooling. Event loop only.
+    public boolean authenticated;        // backend donated to the pool, leases are per transaction from now on
+    public boolean awaitingBackend;      // a lease request is queued in the pool
+    public long leaseReadsPausedAt;      // client reads suspended until the lease arrives
+    public boolean pinned;               // session state lives on the backend, it is never returned to the pool
+    public String batchError;            // the current extended batch is answered with this error at its Sync
+    public long cancelKey;               // BackendKeyData the client was given instead of its backend's, 0 if not pooled
+    public final ArrayDeque<ByteBuf> approvedQueue = new ArrayDeque<>();
+
+    // A query is awaiting approval: later client messages are parked in arrival order and
+    // replayed once it is approved, or discarded if it is rejected. Event loop only.
+    public boolean holding;
+    public final ArrayDeque<ByteBuf> holdQueue = new ArrayDeque<>();
+    public int holdQueueBytes;
+    public long holdReadsPausedAt;   // client reads suspended because holdQueue is over budget
+
+    // Prepared statements registered by Parse, keyed by statement name ("" is the unnamed one).
+    // Only touched from the client channel's event loop.
+    public final Map<String, PreparedStatementInfo> preparedStatements = new HashMap<>();
+    // Statements parsed inside the current held batch; they never reach the server if it is rejected
+    public final Map<String, PreparedStatementInfo> batchStatements = new HashMap<>();
+    // The entries those statements replaced (null where there was none), restored on rejection
+    public final Map<String, PreparedStatementInfo> batchReplaced = new HashMap<>();
+
+    // From the StartupMessage, read when pooling or the query journal need it
+    public String user;
+
     public ConnectionState(String connId) {
         this.connId = connId;
     }
 
     public void resetBatch() {
         inExtendedBatch = false;
+        batchError = null;
         batchQuery.setLength(0);
         for (ByteBuf buf : batchBuffers) {
             if (buf.refCnt() > 0) {
@@ -30,5 +94,22 @@ public class ConnectionState {
             }
         }
         batchBuffers.clear();
+        batchStatements.clear();
+        batchReplaced.clear();
+    }
+
+    public void releaseQueuedMessages() {
+        ByteBuf buf;
+        while ((buf = preConnectQueue.poll()) != null) {
+            buf.release();
+        }
+        while ((buf = approvedQueue.poll()) != null) {
+            buf.release();
+        }
+        while ((buf = holdQueue.poll()) != null) {
+            buf.release();
+        }
+        preConnectBytes = 0;
+        holdQueueBytes = 0;
     }
 }
@@ -0,0 +1,102 @@
+package com.proxy.interceptor.proxy;
+
+import com.proxy.interceptor.service.LatencyHistogram;
+import com.proxy.interceptor.service.QueryJournal;
+
+import java.util.Arrays;
+
+/*
+* Requests a connection has sent that the backend still owes a ReadyForQuery for, oldest first.
+* Each Query or Sync adds one entry; each ReadyForQuery completes the oldest and records its
+* latency, from client receipt to the backend's ReadyForQuery, and hands its journal entry
+* to the query journal.
+*
+* A growable ring of parallel arrays, so tracking a request allocates nothing.
+* Event loop only.
+ */
+public final class InFlightRequests {
+
+    private long[] receivedAt = new long[8];
+    private LatencyHistogram[] typeLatency = new LatencyHistogram[8];
+    private LatencyHistogram[] queryLatency = new LatencyHistogram[8];
+    private QueryJournal.Entry[] journal = new QueryJournal.Entry[8];
+    private int head;
+    private int size;
+
+    /*
+    * Histograms and the journal entry may be null, e.g. for the authentication exchange.
+     */
+    public void add(long receivedAtNanos, LatencyHistogram type, LatencyHistogram query, QueryJournal.Entry entry) {
+        if (size == receivedAt.length) {
+            grow();
+        }
+        int tail = (head + size) & (receivedAt.length - 1);
+        receivedAt[tail] = receivedAtNanos;
+        typeLatency[tail] = type;
+        queryLatency[tail] = query;
+        journal[tail] = entry;
+        size++;
+    }
+
+    /*
+    * Complete the oldest request. Returns false if none was outstanding.
+     */
+    public boolean complete(long nowNanos) {
+        if (size == 0) {
+            return false;
+        }
+        long latency = nowNanos - receivedAt[head];
+        if (typeLatency[head] != null) {
+            typeLatency[head].recordNanos(latency);
+        }
+        if (queryLatency[head] != null) {
+            queryLatency[head].recordNanos(latency);
+        }
+        if (journal[head] != null) {
+            journal[head].complete(latency);
+        }
+        typeLatency[head] = null;
+        queryLatency[head] = null;
+        journal[head] = null;
+        head = (head + 1) & (receivedAt.length - 1);
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Drop everything without recording
+    public void clear() {
+        Arrays.fill(typeLatency, null);
+        Arrays.fill(queryLatency, null);
+        Arrays.fill(journal, null);
+        head = 0;
+        size = 0;
+    }
+
+    private void grow() {
+        int capacity = receivedAt.length * 2;
+        long[] newReceivedAt = new long[capacity];
+        LatencyHistogram[] newType = new LatencyHistogram[capacity];
+        LatencyHistogram[] newQuery = new LatencyHistogram[capacity];
+        QueryJournal.Entry[] newJournal = new QueryJournal.Entry[capacity];
+        for (int i = 0; i < size; i++) {
+            int from = (head + i) & (receivedAt.length - 1);
+            newReceivedAt[i] = receivedAt[from];
+            newType[i] = typeLatency[from];
+            newQuery[i] = queryLatency[from];
+            newJournal[i] = journal[from];
+        }
+        receivedAt = newReceivedAt;
+        typeLatency = newType;
+        queryLatency = newQuery;
+        journal = newJournal;
+        head = 0;
+    }
+}
@@ -0,0 +1,270 @@
+package com.proxy.interceptor.proxy;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/*
+* Aho-Corasick automaton over the critical and allowed keyword lists.
+*
+* Input bytes are reduced to a small alphabet: every byte that cannot be part of a word
+* collapses into a single BOUNDARY symbol, and consecutive boundaries are fed only once.
+* Keywords are compiled as BOUNDARY + word(s) + BOUNDARY, so "UPDATE" never matches
+* inside "UPDATED_AT" and "DROP TABLE" matches across any run of whitespace.
+*
+* The goto/failure functions are flattened into a single DFA transition table, so a scan
+* is one table lookup per byte regardless of how many keywords are configured.
+ */
+public final class KeywordAutomaton {
+
+    public static final int NONE = 0;
+    public static final int ALLOWED = 1;
+    public static final int CRITICAL = 2;
+
+    // Returned by scan() for input without any token (blank or comments only)
+    public static final int EMPTY = -2;
+
+    public static final int BOUNDARY = 0;
+    private static final int OTHER_WORD = 1;
+
+    private final int[] byteClass = new int[256];
+    private final int classCount;
+    private final int[] transitions; // state * classCount + class
+    private final byte[] kinds;      // best match ending in each state
+    private final String[] keywords; // keyword reported for each matching state
+    private final int initialState;
+
+    private KeywordAutomaton(List<String> critical, List<String> allowed) {
+        // Build the alphabet: one class per distinct keyword character, everything else shared
+        int next = OTHER_WORD + 1;
+        for (int b = 0; b < 256; b++) {
+            byteClass[b] = isWordByte((byte) b) ? OTHER_WORD : BOUNDARY;
+        }
+        List<String> all = new ArrayList<>(critical);
+        all.addAll(allowed);
+        for (String keyword : all) {
+            for (char c : normalize(keyword).toCharArray()) {
+                if (c != ' ' && byteClass[c] == OTHER_WORD) {
+                    int cls = next++;
+                    byteClass[c] = cls;
+                    if (c >= 'A' && c <= 'Z') {
+                        byteClass[c + 32] = cls;
+                    }
+                }
+            }
+        }
+        classCount = next;
+
+        // Trie
+        List<int[]> gotos = new ArrayList<>();
+        List<Integer> kindList = new ArrayList<>();
+        List<String> keywordList = new ArrayList<>();
+        gotos.add(newRow());
+        kindList.add(NONE);
+        keywordList.add(null);
+
+        for (int i = 0; i < all.size(); i++) {
+            String keyword = normalize(all.get(i));
+            if (keyword.isEmpty()) {
+                continue;
+            }
+            int kind = i < critical.size() ? CRITICAL : ALLOWED;
+
+            int state = 0;
+            String pattern = " " + keyword + " ";
+            for (int j = 0; j < pattern.length(); j++) {
+                int cls = byteClass[pattern.charAt(j)];
+                int target = gotos.get(state)[cls];
+                if (target < 0) {
+                    target = gotos.size();
+                    gotos.add(newRow());
+                    kindList.add(NONE);
+                    keywordList.add(null);
+                    gotos.get(state)[cls] = target;
+                }
+                state = target;
+            }
+            if (kind > kindList.get(state)) {
+                kindList.set(state, kind);
+                keywordList.set(state, keyword);
+            }
+        }
+
+        // Failure links, folded into a full transition table (breadth first)
+        int stateCount = gotos.size();
+        transitions = new int[stateCount * classCount];
+        kinds = new byte[stateCount];
+        keywords = new String[stateCount];
+        int[] fail = new int[stateCount];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+
+        for (int cls = 0; cls < classCount; cls++) {
+            int target = gotos.get(0)[cls];
+            if (target < 0) {
+                transitions[cls] = 0;
+            } else {
+                transitions[cls] = target;
+                fail[target] = 0;
+                queue.add(target);
+            }
+        }
+        kinds[0] = (byte) (int) kindList.get(0);
+
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            int failState = fail[state];
+
+            kinds[state] = (byte) (int) kindList.get(state);
+            keywords[state] = keywordList.get(state);
+            if (kinds[failState] > kinds[state]) {
+                kinds[state] = kinds[failState];
+                keywords[state] = keywords[failState];
+            }
+
+            for (int cls = 0; cls < classCount; cls++) {
+                int target = gotos.get(state)[cls];
+                if (target < 0) {
+                    transitions[state * classCount + cls] = transitions[failState * classCount + cls];
+                } else {
+                    transitions[state * classCount + cls] = target;
+                    fail[target] = transitions[failState * classCount + cls];
+                    queue.add(target);
+                }
+            }
+        }
+
+        initialState = transitions[BOUNDARY];
+    }
+
+    public static KeywordAutomaton compile(List<String> critical, List<String> allowed) {
+        return new KeywordAutomaton(critical, allowed);
+    }
+
+    /*
+    * State after the implicit boundary that precedes every input.
+     */
+    public int initialState() {
+        return initialState;
+    }
+
+    public int classOf(byte b) {
+        return byteClass[b & 0xFF];
+    }
+
+    public int step(int state, int cls) {
+        return transitions[state * classCount + cls];
+    }
+
+    public int kind(int state) {
+        return kinds[state];
+    }
+
+    public String keyword(int state) {
+        return keywords[state];
+    }
+
+    /*
+    * Scan the tokens of one statement, up to the next ';' or the end of input, in a single
+    * pass. Only words, raw regions the lexer could not delimit and dollar-quoted bodies are
+    * fed byte by byte; every other token is a boundary, so keywords inside literals, quoted
+    * identifiers and comments never match. Dollar-quoted bodies are scanned because they are
+    * function and DO bodies as often as not, so "DO $$ BEGIN DROP TABLE t; END $$" is
+    * critical. Returns as soon as a critical keyword matches, leaving the lexer inside the
+    * statement.
+    * Returns the state of the deciding match (the critical one, otherwise the first allowed
+    * one), -1 when no keyword matched, or EMPTY when the statement had no tokens at all.
+     */
+    public int scan(SqlLexer lexer) {
+        ByteBuf buf = lexer.buffer();
+        int state = initialState;
+        int allowedState = -1;
+        boolean atBoundary = true;
+        boolean empty = true;
+
+        for (int type = lexer.next(); ; type = lexer.next()) {
+            if (!atBoundary) {
+                state = transitions[state * classCount + BOUNDARY];
+                atBoundary = true;
+                int kind = kinds[state];
+                if (kind == CRITICAL) {
+                    return state;
+                }
+                if (kind == ALLOWED && allowedState < 0) {
+                    allowedState = state;
+                }
+            }
+            if (type == SqlLexer.EOF || type == SqlLexer.SEMICOLON) {
+                return empty ? EMPTY : allowedState;
+            }
+            empty = false;
+            int start;
+            int end;
+            if (type == SqlLexer.WORD || type == SqlLexer.RAW) {
+                start = lexer.tokenStart();
+                end = lexer.tokenEnd();
+            } else if (type == SqlLexer.DOLLAR_STRING) {
+                start = lexer.contentStart();
+                end = lexer.contentEnd();
+            } else {
+                continue;
+            }
+
+            for (int i = start; i < end; i++) {
+                int cls = byteClass[buf.getByte(i) & 0xFF];
+                if (cls == BOUNDARY && atBoundary) {
+                    continue;
+                }
+                atBoundary = cls == BOUNDARY;
+                state = transitions[state * classCount + cls];
+
+                int kind = kinds[state];
+                if (kind == CRITICAL) {
+                    return state;
+                }
+                if (kind == ALLOWED && allowedState < 0) {
+                    allowedState = state;
+                }
+            }
+        }
+    }
+
+    /*
+    * PostgreSQL identifier characters; multibyte UTF-8 sequences are treated as letters.
+     */
+    static boolean isWordByte(byte b) {
+        return (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9')
+                || b == '_' || b == '$' || b < 0;
+    }
+
+    private int[] newRow() {
+        int[] row = new int[classCount];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    /*
+    * Upper-case a keyword and collapse every run of non-word characters into one space.
+     */
+    private static String normalize(String keyword) {
+        String upper = keyword.trim().toUpperCase(Locale.ROOT);
+        StringBuilder sb = new StringBuilder(upper.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < upper.length(); i++) {
+            char c = upper.charAt(i);
+            if (c < 128 && isWordByte((byte) c)) {
+                if (pendingSpace && sb.length() > 0) {
+                    sb.append(' ');
+                }
+                pendingSpace = false;
+                sb.append(c);
+            } else {
+                pendingSpace = true;
+            }
+        }
+        return sb.toString();
+    }
+}
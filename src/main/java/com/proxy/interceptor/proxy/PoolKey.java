@@ -0,0 +1,31 @@
+package com.proxy.interceptor.proxy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+* Backends are only shared between client sessions that authenticated as the same user
+* against the same database with the same other startup parameters: options (-c ...),
+* client_encoding, DateStyle, TimeZone, application_name and so on set the backend's session
+* state, and the client only ever saw the ParameterStatus of the backend it authenticated on.
+ */
+public record PoolKey(
+        String user,
+        String database,
+        Map<String, String> parameters
+) {
+
+    public PoolKey {
+        parameters = Map.copyOf(parameters);
+    }
+
+    /*
+    * The key of a StartupMessage's parameters, which must include the user.
+     */
+    public static PoolKey of(Map<String, String> startupParameters) {
+        Map<String, String> parameters = new HashMap<>(startupParameters);
+        String user = parameters.remove("user");
+        String database = parameters.remove("database");
+        return new PoolKey(user, database != null ? database : user, parameters);
+    }
+}
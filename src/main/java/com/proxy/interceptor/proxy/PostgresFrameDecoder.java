@@ -0,0 +1,93 @@
+package com.proxy.interceptor.proxy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+
+import java.util.List;
+
+/*
+* Splits the client byte stream into whole PostgreSQL protocol messages.
+*
+* Startup phase frames are untyped: Length (4 bytes, includes itself) + Payload.
+* Once a StartupMessage has been seen every frame is typed:
+* Type (1 byte) + Length (4 bytes, includes itself but not the type byte) + Payload.
+*
+* Each emitted message is a retained slice of the cumulation buffer, so no bytes are
+* copied and a frame split across several reads is only emitted once it is complete.
+* Since a frame is buffered whole, its announced length is capped before anything is
+* buffered: startup packets at PostgreSQL's own 10000-byte limit (they arrive before
+* authentication), typed messages at a configurable maximum.
+ */
+public class PostgresFrameDecoder extends ByteToMessageDecoder {
+
+    public static final int SSL_REQUEST_CODE = 80877103;
+    public static final int GSSENC_REQUEST_CODE = 80877104;
+    public static final int CANCEL_REQUEST_CODE = 80877102;
+
+    // MAX_STARTUP_PACKET_LENGTH in PostgreSQL
+    static final int MAX_STARTUP_LENGTH = 10000;
+
+    private final int maxMessageLength;
+    private boolean startupPhase = true;
+
+    public PostgresFrameDecoder(int maxMessageLength) {
+        this.maxMessageLength = maxMessageLength;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        while (true) {
+            ByteBuf frame = startupPhase ? decodeStartupFrame(in) : decodeTypedFrame(in);
+            if (frame == null) {
+                return;
+            }
+            out.add(frame);
+        }
+    }
+
+    private ByteBuf decodeStartupFrame(ByteBuf in) {
+        if (in.readableBytes() < 8) {
+            return null;
+        }
+
+        int start = in.readerIndex();
+        int length = in.getInt(start);
+        if (length < 8 || length > MAX_STARTUP_LENGTH) {
+            throw new CorruptedFrameException("Invalid startup message length: " + length);
+        }
+        if (in.readableBytes() < length) {
+            return null;
+        }
+
+        // SSLRequest and GSSENCRequest are followed by another startup packet
+        int code = in.getInt(start + 4);
+        if (code != SSL_REQUEST_CODE && code != GSSENC_REQUEST_CODE) {
+            startupPhase = false;
+        }
+
+        return in.readRetainedSlice(length);
+    }
+
+    private ByteBuf decodeTypedFrame(ByteBuf in) {
+        if (in.readableBytes() < 5) {
+            return null;
+        }
+
+        int start = in.readerIndex();
+        int length = in.getInt(start + 1);
+        if (length < 4) {
+            throw new CorruptedFrameException("Invalid message length: " + length);
+        }
+        if (length > maxMessageLength) {
+            throw new TooLongFrameException("Message length " + length + " exceeds " + maxMessageLength);
+        }
+        if (in.readableBytes() < 1 + length) {
+            return null;
+        }
+
+        return in.readRetainedSlice(1 + length);
+    }
+}
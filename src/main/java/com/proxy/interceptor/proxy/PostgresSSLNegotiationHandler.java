@@ -2,7 +2,7 @@ package com.proxy.interceptor.proxy;
 
 import com.proxy.interceptor.service.BlockedQueryService;
 import com.proxy.interceptor.service.MetricsService;
-import io.netty.bootstrap.Bootstrap;
+import com.proxy.interceptor.service.QueryJournal;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
 import io.netty.handler.ssl.SslContext;
@@ -22,6 +22,12 @@ public class PostgresSSLNegotiationHandler extends ChannelInboundHandlerAdapter
     private final boolean sslEnabled;
     private final SslContext proxySslContext;
     private final SslContext postgresClientSslContext;
+    private final WriteBufferWaterMark serverWaterMark;
+    private final int preConnectLimit;
+    private final int holdQueueLimit;
+    private final BackendPool backendPool;
+    private final WarmConnectionPool warmPool;
+    private final QueryJournal journal;
     private final SqlClassifier sqlClassifier;
     private final EventLoopGroupFactory eventLoopGroupFactory;
     private final WireProtocolHandler protocolHandler;
@@ -40,6 +46,12 @@ public class PostgresSSLNegotiationHandler extends ChannelInboundHandlerAdapter
             boolean sslEnabled,
             SslContext proxySslContext,
             SslContext postgresClientSslContext,
+            WriteBufferWaterMark serverWaterMark,
+            int preConnectLimit,
+            int holdQueueLimit,
+            BackendPool backendPool,
+            WarmConnectionPool warmPool,
+            QueryJournal journal,
             SqlClassifier sqlClassifier,
             EventLoopGroupFactory eventLoopGroupFactory,
             WireProtocolHandler protocolHandler,
@@ -55,6 +67,12 @@ public class PostgresSSLNegotiationHandler extends ChannelInboundHandlerAdapter
         this.sslEnabled = sslEnabled;
         this.proxySslContext = proxySslContext;
         this.postgresClientSslContext = postgresClientSslContext;
+        this.serverWaterMark = serverWaterMark;
+        this.preConnectLimit = preConnectLimit;
+        this.holdQueueLimit = holdQueueLimit;
+        this.backendPool = backendPool;
+        this.warmPool = warmPool;
+        this.journal = journal;
         this.sqlClassifier = sqlClassifier;
         this.eventLoopGroupFactory = eventLoopGroupFactory;
         this.protocolHandler = protocolHandler;
@@ -71,58 +89,79 @@ public class PostgresSSLNegotiationHandler extends ChannelInboundHandlerAdapter
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        // PostgresFrameDecoder guarantees a complete startup packet per read
         ByteBuf buf = (ByteBuf) msg;
 
         try {
-            if (!startupReceived && buf.readableBytes() >= 8) {
-                // Check for SSLRequest (length=8, code=80877103)
-                int length = buf.getInt(buf.readerIndex());
-                int code = buf.getInt(buf.readerIndex() + 4);
-
-                if (length == 8 && code == 80877103) {
-                    // SSLRequest message
-                    log.debug("{}: Received SSLRequest", connId);
-                    handleSSLRequest(ctx);
-                    return;
-                }
-
-                // StartupMessage
-                startupReceived = true;
-                log.debug("{}: Received StartupMessage, connecting to PostgreSQL", connId);
-
-                ctx.pipeline().replace(
-                        this,
-                        "clientHandler",
-                        new ClientHandler(
-                                connId,
-                                state,
-                                targetHost,
-                                targetPort,
-                                sqlClassifier,
-                                protocolHandler,
-                                blockedQueryService,
-                                metricsService,
-                                eventLoopGroupFactory,
-                                ctx.channel(),
-                                connections
-                        )
-                );
-
-                // Connect to db engine and forward startup message
-                connectToPostgres(ctx, buf.retainedDuplicate());
+            int code = buf.getInt(buf.readerIndex() + 4);
+
+            if (code == PostgresFrameDecoder.SSL_REQUEST_CODE) {
+                // SSLRequest message
+                log.debug("{}: Received SSLRequest", connId);
+                handleSSLRequest(ctx);
                 return;
             }
 
-            // Forward other messages
-            if (state.serverChannel != null && state.serverChannel.isActive()) {
-                state.serverChannel.writeAndFlush(buf.retainedDuplicate());
+            if (code == PostgresFrameDecoder.GSSENC_REQUEST_CODE) {
+                // GSSENCRequest - GSSAPI encryption is not supported by the proxy
+                log.debug("{}: Received GSSENCRequest, declining", connId);
+                ByteBuf response = ctx.alloc().buffer(1);
+                response.writeByte('N');
+                ctx.writeAndFlush(response);
+                return;
             }
 
+            // StartupMessage
+            startupReceived = true;
+            log.debug("{}: Received StartupMessage, connecting to PostgreSQL", connId);
+
+            ClientHandler clientHandler = new ClientHandler(
+                    connId,
+                    state,
+                    targetHost,
+                    targetPort,
+                    sqlClassifier,
+                    protocolHandler,
+                    blockedQueryService,
+                    metricsService,
+                    eventLoopGroupFactory,
+                    serverWaterMark,
+                    preConnectLimit,
+                    holdQueueLimit,
+                    backendPool,
+                    warmPool,
+                    journal,
+                    ctx.channel(),
+                    connections
+            );
+            ctx.pipeline().replace(this, "clientHandler", clientHandler);
+
+            // Connect to db engine and forward startup message
+            clientHandler.connect(buf.retainedDuplicate());
         } finally {
             buf.release();
         }
     }
 
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        // Client went away before sending a StartupMessage
+        if (!startupReceived) {
+            log.debug("{}: Client disconnected during startup", connId);
+            connections.remove(connId);
+            metricsService.trackDisconnection();
+        }
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        // Typically a malformed or oversized startup packet from the frame decoder
+        log.warn("{}: Error during startup: {}", connId, cause.getMessage());
+        metricsService.trackError();
+        ctx.close();
+    }
+
     private void handleSSLRequest(ChannelHandlerContext ctx) {
         ByteBuf response = ctx.alloc().buffer(1);
 
@@ -138,31 +177,4 @@ public class PostgresSSLNegotiationHandler extends ChannelInboundHandlerAdapter
             ctx.writeAndFlush(response);
         }
     }
-
-    private void connectToPostgres(ChannelHandlerContext ctx, ByteBuf startupMessage) {
-        Bootstrap bootstrap = new Bootstrap();
-        bootstrap.group(ctx.channel().eventLoop())
-                .channel(eventLoopGroupFactory.getServerChannelClass())
-                .option(ChannelOption.SO_KEEPALIVE, true)
-                .option(ChannelOption.TCP_NODELAY, true)
-                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
-                .handler(new ChannelInitializer<>() {
-                    @Override
-                    protected void initChannel(Channel ch) {
-                        ch.pipeline().addLast(new ServerHandler(connId, clientChannel, metricsService));
-                    }
-                });
-
-        bootstrap.connect(targetHost, targetPort).addListener((ChannelFutureListener) future -> {
-            if (future.isSuccess()) {
-                state.serverChannel = future.channel();
-                state.serverChannel.writeAndFlush(startupMessage);
-            } else {
-                startupMessage.release();
-                ByteBuf error = protocolHandler.createErrorResponse("Failed to connect to server");
-                ctx.writeAndFlush(error);
-                ctx.close();
-            }
-        });
-    }
 }
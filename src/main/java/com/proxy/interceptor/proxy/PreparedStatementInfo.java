@@ -0,0 +1,29 @@
+package com.proxy.interceptor.proxy;
+
+import com.proxy.interceptor.service.LatencyHistogram;
+
+/*
+* Classification of a named prepared statement, remembered per connection so Bind/Execute
+* on it cost a map lookup instead of a re-classification.
+* sql is kept for statements that require approval, it is what gets persisted when a later
+* Bind on the statement is held, and for every statement while the query journal is enabled.
+* latency is the statement's fingerprint histogram, null when fingerprints are not tracked.
+ */
+public record PreparedStatementInfo(
+        Classification classification,
+        String sql,
+        LatencyHistogram latency,
+        long fingerprint
+) {
+    public static PreparedStatementInfo allowed(String sql, LatencyHistogram latency, long fingerprint) {
+        return new PreparedStatementInfo(Classification.ALLOWED, sql, latency, fingerprint);
+    }
+
+    public static PreparedStatementInfo critical(String sql, LatencyHistogram latency, long fingerprint) {
+        return new PreparedStatementInfo(Classification.CRITICAL, sql, latency, fingerprint);
+    }
+
+    public boolean isCritical() {
+        return classification == Classification.CRITICAL;
+    }
+}
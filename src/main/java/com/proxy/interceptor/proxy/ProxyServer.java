@@ -2,11 +2,15 @@ package com.proxy.interceptor.proxy;
 
 import com.proxy.interceptor.service.BlockedQueryService;
 import com.proxy.interceptor.service.MetricsService;
+import com.proxy.interceptor.service.QueryJournal;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
+import io.netty.util.concurrent.EventExecutor;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
@@ -32,15 +36,57 @@ public class ProxyServer {
     @Value("${proxy.ssl.enabled}")
     private boolean sslEnabled;
 
+    // Per-leg write buffer water marks: above high, reads on the opposite leg are suspended
+    @Value("${proxy.backpressure.client.low-water-mark}")
+    private int clientLowWaterMark;
+
+    @Value("${proxy.backpressure.client.high-water-mark}")
+    private int clientHighWaterMark;
+
+    @Value("${proxy.backpressure.server.low-water-mark}")
+    private int serverLowWaterMark;
+
+    @Value("${proxy.backpressure.server.high-water-mark}")
+    private int serverHighWaterMark;
+
+    // Largest client message accepted after startup; each message is buffered whole
+    @Value("${proxy.max-message-size}")
+    private int maxMessageSize;
+
+    // Bytes a client may send before the server connection is established
+    @Value("${proxy.pre-connect-buffer-limit}")
+    private int preConnectLimit;
+
+    // Bytes a client may pipeline behind a query held for approval before its reads pause
+    @Value("${proxy.hold-queue-limit}")
+    private int holdQueueLimit;
+
+    // Transaction pooling: share authenticated backends per (user, database)
+    @Value("${proxy.pooling.enabled}")
+    private boolean poolingEnabled;
+
+    @Value("${proxy.pooling.max-backends-per-key}")
+    private int maxBackendsPerKey;
+
+    // Pre-connected backend channels per event loop, 0 disables
+    @Value("${proxy.warm-pool.size-per-loop}")
+    private int warmPoolSize;
+
+    @Value("${proxy.warm-pool.max-idle-ms}")
+    private long warmPoolMaxIdleMillis;
+
     private final SqlClassifier sqlClassifier;
     private final WireProtocolHandler protocolHandler;
     private final BlockedQueryService blockedQueryService;
     private final MetricsService metricsService;
     private final EventLoopGroupFactory eventLoopGroupFactory;
+    private final QueryJournal queryJournal;
 
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
     private Channel serverChannel;
+    private BackendPool backendPool;
+    private WarmConnectionPool warmPool;
 
     private final ConcurrentHashMap<String, ConnectionState> connections = new ConcurrentHashMap<>();
     private final AtomicInteger connectionCounter = new AtomicInteger(0);
@@ -49,12 +95,14 @@ public class ProxyServer {
                        WireProtocolHandler protocolHandler,
                        BlockedQueryService blockedQueryService,
                        MetricsService metricsService,
-                       EventLoopGroupFactory eventLoopGroupFactory) {
+                       EventLoopGroupFactory eventLoopGroupFactory,
+                       QueryJournal queryJournal) {
         this.sqlClassifier = sqlClassifier;
         this.protocolHandler = protocolHandler;
         this.blockedQueryService = blockedQueryService;
         this.metricsService = metricsService;
         this.eventLoopGroupFactory = eventLoopGroupFactory;
+        this.queryJournal = queryJournal;
     }
 
     @PostConstruct
@@ -63,9 +111,29 @@ public class ProxyServer {
         bossGroup = eventLoopGroupFactory.createBossGroup();
         workerGroup = eventLoopGroupFactory.createWorkerGroup();
 
+        if (poolingEnabled) {
+            int eventLoops = 0;
+            for (EventExecutor ignored : workerGroup) {
+                eventLoops++;
+            }
+            backendPool = new BackendPool(maxBackendsPerKey, eventLoops);
+            log.info("Transaction pooling enabled, up to {} backends per user and database", maxBackendsPerKey);
+        }
+
+        WriteBufferWaterMark serverWaterMark = new WriteBufferWaterMark(serverLowWaterMark, serverHighWaterMark);
+        QueryJournal journal = queryJournal.isEnabled() ? queryJournal : null;
+
+        if (warmPoolSize > 0) {
+            warmPool = new WarmConnectionPool(eventLoopGroupFactory, targetHost, targetPort, serverWaterMark,
+                    warmPoolSize, warmPoolMaxIdleMillis, metricsService);
+            warmPool.start(workerGroup);
+        }
+
         ServerBootstrap b = new ServerBootstrap();
         b.group(bossGroup, workerGroup)
                 .channel(eventLoopGroupFactory.getServerChannelClass())
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                        new WriteBufferWaterMark(clientLowWaterMark, clientHighWaterMark))
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel ch) {
@@ -74,18 +142,29 @@ public class ProxyServer {
                         connections.put(connId, state);
                         metricsService.trackConnection();
 
+                        ch.pipeline().addLast("frameDecoder", new PostgresFrameDecoder(maxMessageSize));
                         ch.pipeline().addLast(
-                                new ClientHandler(
+                                "negotiation",
+                                new PostgresSSLNegotiationHandler(
                                         connId,
                                         state,
+                                        ch,
                                         targetHost,
                                         targetPort,
+                                        sslEnabled,
+                                        null, // proxy-side TLS context is not configured yet
+                                        null,
+                                        serverWaterMark,
+                                        preConnectLimit,
+                                        holdQueueLimit,
+                                        backendPool,
+                                        warmPool,
+                                        journal,
                                         sqlClassifier,
+                                        eventLoopGroupFactory,
                                         protocolHandler,
                                         blockedQueryService,
                                         metricsService,
-                                        eventLoopGroupFactory,
-                                        ch,
                                         connections
                                 )
                         );
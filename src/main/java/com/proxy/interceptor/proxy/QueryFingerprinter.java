@@ -0,0 +1,108 @@
+package com.proxy.interceptor.proxy;
+
+import io.netty.buffer.ByteBuf;
+
+import java.security.SecureRandom;
+
+/*
+* 64-bit fingerprint of a query's normalized token stream, computed on the message bytes.
+*
+* Normalization: words are upper-cased, every literal (string, number, parameter) becomes a
+* single '?', comments and whitespace disappear and tokens are separated by a 0 byte.
+* Dollar-quoted bodies are kept verbatim, since classification scans them as code. Two
+* queries with the same fingerprint therefore only differ in literal values, letter case or
+* formatting - none of which change their classification.
+*
+* The stream is hashed with SipHash-1-3 under a per-process random key, so a client cannot
+* construct a harmless query that collides with a critical one.
+*
+* Instances are reusable and not thread-safe.
+ */
+public final class QueryFingerprinter {
+
+    private static final long K0;
+    private static final long K1;
+
+    static {
+        SecureRandom random = new SecureRandom();
+        K0 = random.nextLong();
+        K1 = random.nextLong();
+    }
+
+    private long v0;
+    private long v1;
+    private long v2;
+    private long v3;
+    private long word;
+    private int length;
+
+    public long fingerprint(SqlLexer lexer) {
+        v0 = K0 ^ 0x736f6d6570736575L;
+        v1 = K1 ^ 0x646f72616e646f6dL;
+        v2 = K0 ^ 0x6c7967656e657261L;
+        v3 = K1 ^ 0x7465646279746573L;
+        word = 0;
+        length = 0;
+
+        ByteBuf buf = lexer.buffer();
+        for (int type = lexer.next(); type != SqlLexer.EOF; type = lexer.next()) {
+            switch (type) {
+                case SqlLexer.WORD -> {
+                    for (int i = lexer.tokenStart(); i < lexer.tokenEnd(); i++) {
+                        byte b = buf.getByte(i);
+                        update(b >= 'a' && b <= 'z' ? (byte) (b - 32) : b);
+                    }
+                }
+                case SqlLexer.STRING, SqlLexer.NUMBER, SqlLexer.PARAMETER -> update((byte) '?');
+                default -> {
+                    for (int i = lexer.tokenStart(); i < lexer.tokenEnd(); i++) {
+                        update(buf.getByte(i));
+                    }
+                }
+            }
+            update((byte) 0);
+        }
+
+        return finish();
+    }
+
+    private void update(byte b) {
+        word |= (b & 0xFFL) << ((length & 7) << 3);
+        length++;
+        if ((length & 7) == 0) {
+            v3 ^= word;
+            round();
+            v0 ^= word;
+            word = 0;
+        }
+    }
+
+    private long finish() {
+        long last = word | ((long) length << 56);
+        v3 ^= last;
+        round();
+        v0 ^= last;
+        v2 ^= 0xFF;
+        round();
+        round();
+        round();
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+
+    private void round() {
+        v0 += v1;
+        v1 = Long.rotateLeft(v1, 13);
+        v1 ^= v0;
+        v0 = Long.rotateLeft(v0, 32);
+        v2 += v3;
+        v3 = Long.rotateLeft(v3, 16);
+        v3 ^= v2;
+        v0 += v3;
+        v3 = Long.rotateLeft(v3, 21);
+        v3 ^= v0;
+        v2 += v1;
+        v1 = Long.rotateLeft(v1, 17);
+        v1 ^= v2;
+        v2 = Long.rotateLeft(v2, 32);
+    }
+}
@@ -10,33 +10,191 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class ServerHandler extends ChannelInboundHandlerAdapter {
 
-    private final String connId;
-    private final Channel clientChannel;
     private final MetricsService metricsService;
 
+    // Client session the backend currently serves; changes with every lease in pooling mode,
+    // null while the backend sits idle in the pool
+    private String connId;
+    private ConnectionState state;
+    private Channel clientChannel;
+
+    private final BackendMessageInspector inspector = new BackendMessageInspector();
+
+    // Pooling mode only, otherwise null
+    private final BackendPool pool;
+    private final PoolKey poolKey;
+    private boolean pooled; // owned by the pool (donated)
+    private Channel channel;
+
     public ServerHandler(String connId,
+                         ConnectionState state,
                          Channel clientChannel,
                          MetricsService metricsService) {
+        this(connId, state, clientChannel, metricsService, null, null);
+    }
+
+    public ServerHandler(String connId,
+                         ConnectionState state,
+                         Channel clientChannel,
+                         MetricsService metricsService,
+                         BackendPool pool,
+                         PoolKey poolKey) {
         this.connId = connId;
+        this.state = state;
         this.clientChannel = clientChannel;
         this.metricsService = metricsService;
+        this.pool = pool;
+        this.poolKey = poolKey;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.channel = ctx.channel();
+    }
+
+    /*
+    * Attach a pooled backend to the client session that leased it.
+     */
+    void bind(String connId, ConnectionState state, Channel clientChannel) {
+        this.connId = connId;
+        this.state = state;
+        this.clientChannel = clientChannel;
     }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        ByteBuf buf = (ByteBuf) msg;
+        int readyForQuery = inspector.inspect(buf, state);
+
         // Forward server response to client
-        if (clientChannel.isActive()) {
-            clientChannel.writeAndFlush(msg);
+        if (clientChannel != null && clientChannel.isActive()) {
+            // Flushed once per read in channelReadComplete, not per chunk
+            clientChannel.write(buf, clientChannel.voidPromise());
+            state.clientFlushPending = true;
+            if (!clientChannel.isWritable()) {
+                pauseServerReads(ctx);
+            }
+            if (readyForQuery > 0) {
+                completeRequests(readyForQuery);
+            }
         } else {
-            // If client is dead, release message to avoid leaks
-            ((ByteBuf) msg).release();
+            // If client is dead (or the backend is idle in the pool), release message to avoid leaks
+            buf.release();
         }
     }
 
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        if (state != null && state.clientFlushPending) {
+            state.clientFlushPending = false;
+            clientChannel.flush();
+            metricsService.trackFlush("client");
+        }
+        ctx.fireChannelReadComplete();
+    }
+
+    private void completeRequests(int readyForQuery) {
+        long now = System.nanoTime();
+        for (int i = 0; i < readyForQuery; i++) {
+            state.inFlight.complete(now);
+        }
+        if (state.inFlight.isEmpty()) {
+            state.inFlightCommand = null;
+        }
+        releaseIfIdle();
+    }
+
+    /*
+    * Pooling
+    * The backend goes back to the pool once every Sync/Query sent by the client has been
+    * answered, nothing half-sent is pending and the transaction is idle. The first time this
+    * happens (after authentication) the backend is donated to the pool. A pinned session
+    * (named prepared statements or other session state on this backend) keeps it for good.
+    * Returns false when the backend is still needed by its session.
+     */
+    boolean releaseIfIdle() {
+        if (pool == null || poolKey == null || state == null || state.pinned
+                || !state.inFlight.isEmpty() || state.unsyncedWrites || !inspector.isIdle()) {
+            return false;
+        }
+
+        ConnectionState session = state;
+        if (session.clientFlushPending) {
+            session.clientFlushPending = false;
+            clientChannel.flush();
+            metricsService.trackFlush("client");
+        }
+        // The legs are separated, undo any backpressure between them
+        if (session.serverReadsPausedAt != 0) {
+            session.serverReadsPausedAt = 0;
+            channel.config().setAutoRead(true);
+        }
+        if (session.clientReadsPausedAt != 0) {
+            session.clientReadsPausedAt = 0;
+            if (session.holdReadsPausedAt == 0) {
+                clientChannel.config().setAutoRead(true);
+            }
+        }
+        session.serverChannel = null;
+        session.authenticated = true;
+        // The unnamed statement stays behind on this backend
+        session.preparedStatements.remove("");
+        log.debug("{}: Returning backend to the pool", connId);
+        bind(null, null, null);
+
+        if (pooled) {
+            pool.release(poolKey, channel);
+        } else if (pool.donate(poolKey, channel)) {
+            pooled = true;
+        } else {
+            log.debug("Backend pool for {}@{} is full, closing backend", poolKey.user(), poolKey.database());
+            channel.close();
+        }
+        return true;
+    }
+
+    /*
+    * This backend's own BackendKeyData, 0 until authentication sent it.
+     */
+    long backendKey() {
+        return inspector.backendKey();
+    }
+
+    /*
+    * Backpressure
+    * The client is not draining its socket fast enough (e.g. a large result set), stop reading
+    * from the server until ClientHandler sees the client leg writable again.
+     */
+    private void pauseServerReads(ChannelHandlerContext ctx) {
+        if (state.serverReadsPausedAt == 0) {
+            log.debug("{}: Client leg unwritable, pausing server reads", connId);
+            state.serverReadsPausedAt = System.nanoTime();
+            ctx.channel().config().setAutoRead(false);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        // Server leg drained below its low water mark, resume reading from the client
+        if (state != null && ctx.channel().isWritable() && state.clientReadsPausedAt != 0) {
+            log.debug("{}: Server leg writable, resuming client reads", connId);
+            metricsService.trackBackpressure("server", System.nanoTime() - state.clientReadsPausedAt);
+            state.clientReadsPausedAt = 0;
+            // Still paused if the session's hold queue is over budget
+            if (state.holdReadsPausedAt == 0) {
+                clientChannel.config().setAutoRead(true);
+            }
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) {
         log.debug("{}: Server connection closed", connId);
-        if (clientChannel.isActive()) {
+        if (pooled) {
+            pool.remove(poolKey, ctx.channel());
+        }
+        if (clientChannel != null && clientChannel.isActive()) {
             clientChannel.close();
         }
     }
@@ -1,15 +1,25 @@
 package com.proxy.interceptor.proxy;
 
+import com.proxy.interceptor.service.MetricsService;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.FastThreadLocal;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 @Component
+@RequiredArgsConstructor
 @Slf4j
 public class SqlClassifier {
 
+    private final MetricsService metricsService;
+
     @Value("${proxy.critical-keywords}")
     private List<String> criticalKeywords;
 
@@ -19,34 +29,256 @@ public class SqlClassifier {
     @Value("${proxy.block-by-default}")
     private boolean blockedByDefault;
 
+    @Value("${proxy.classification-cache.size}")
+    private int cacheSize;
+
+    // Keyword lists, compiled automaton and result cache, swapped as one unit on rule changes
+    private volatile Rules rules;
+
+    // Classification runs on the event loops, one reusable lexer and fingerprinter per thread
+    private static final FastThreadLocal<SqlLexer> LEXERS = new FastThreadLocal<>() {
+        @Override
+        protected SqlLexer initialValue() {
+            return new SqlLexer();
+        }
+    };
+
+    private static final FastThreadLocal<QueryFingerprinter> FINGERPRINTERS = new FastThreadLocal<>() {
+        @Override
+        protected QueryFingerprinter initialValue() {
+            return new QueryFingerprinter();
+        }
+    };
+
+    /*
+    * Transaction pooling: statements that leave state on the backend past their transaction.
+    * A pooled session that runs one keeps its backend from then on. These match anywhere in a
+    * statement; SESSION_COMMANDS only when they start one. Matching is deliberately broad,
+    * a false positive only costs the session its pooling.
+     */
+    private static final KeywordAutomaton SESSION_STATE = KeywordAutomaton.compile(List.of(
+            "TEMP TABLE", "TEMPORARY TABLE", "TEMP VIEW", "TEMPORARY VIEW", "TEMP RECURSIVE",
+            "TEMPORARY RECURSIVE", "TEMP SEQUENCE", "TEMPORARY SEQUENCE", "INTO TEMP", "INTO TEMPORARY",
+            "WITH HOLD", "SET_CONFIG", "PG_ADVISORY_LOCK", "PG_ADVISORY_LOCK_SHARED",
+            "PG_TRY_ADVISORY_LOCK", "PG_TRY_ADVISORY_LOCK_SHARED"), List.of());
+
+    private static final List<String> SESSION_COMMANDS = List.of("SET", "RESET", "PREPARE", "LISTEN", "LOAD");
+
+    // SET variants that only last until the end of the transaction
+    private static final List<String> TRANSACTION_SET = List.of("LOCAL", "TRANSACTION", "CONSTRAINTS");
+
+    private record Rules(
+            List<String> criticalKeywords,
+            List<String> allowedKeywords,
+            boolean blockByDefault,
+            KeywordAutomaton automaton,
+            ClassificationCache cache
+    ) {}
+
+    @PostConstruct
+    void compileKeywords() {
+        updateRules(criticalKeywords, allowedKeywords, blockedByDefault);
+    }
+
+    /*
+    * Compile new classification rules and publish them atomically. Results cached under
+    * the previous rules are dropped together with them.
+     */
+    public void updateRules(List<String> critical, List<String> allowed, boolean blockByDefault) {
+        rules = new Rules(
+                List.copyOf(critical),
+                List.copyOf(allowed),
+                blockByDefault,
+                KeywordAutomaton.compile(critical, allowed),
+                cacheSize > 0 ? new ClassificationCache(cacheSize) : null
+        );
+        log.info("Compiled {} critical and {} allowed keywords", critical.size(), allowed.size());
+    }
+
+    public List<String> getCriticalKeywords() {
+        return rules.criticalKeywords();
+    }
+
+    public List<String> getAllowedKeywords() {
+        return rules.allowedKeywords();
+    }
+
+    public boolean isBlockByDefault() {
+        return rules.blockByDefault();
+    }
+
     public Classification classify(String sql) {
         if (sql == null || sql.isBlank()) {
             return Classification.ALLOWED;
         }
+        byte[] bytes = sql.getBytes(StandardCharsets.UTF_8);
+        return classify(Unpooled.wrappedBuffer(bytes), 0, bytes.length);
+    }
+
+    /*
+    * Classify the SQL held in buf between (start, end) without copying or decoding it.
+    * A multi-statement query is critical as soon as one of its statements is.
+     */
+    public Classification classify(ByteBuf buf, int start, int end) {
+        return findBlockingStatement(buf, start, end) == null ? Classification.ALLOWED : Classification.CRITICAL;
+    }
 
-        String upperSql = sql.toUpperCase();
+    /*
+    * Normalized fingerprint of the SQL held in buf between (start, end), see QueryFingerprinter.
+     */
+    public long fingerprint(ByteBuf buf, int start, int end) {
+        SqlLexer lexer = LEXERS.get().reset(buf, start, end);
+        try {
+            return FINGERPRINTERS.get().fingerprint(lexer);
+        } finally {
+            lexer.clear();
+        }
+    }
 
-        // Check critical keywords first (highest priority)
-        for (String keyword: criticalKeywords) {
-            if (upperSql.contains(keyword.toUpperCase())) {
-                log.debug("SQL classified as CRITICAL (matched: {})", keyword);
-                return Classification.CRITICAL;
+    /*
+    * Split the SQL into statements in a single pass and classify each one on its own.
+    * Returns the first statement that requires approval, or null when every statement is
+    * allowed - that path allocates nothing.
+    * The cache is not consulted: fingerprinting is a lexer pass of its own and costs as much
+    * as the scan, so it only pays off for callers that fingerprint the query anyway.
+     */
+    public StatementMatch findBlockingStatement(ByteBuf buf, int start, int end) {
+        return scanStatements(rules, buf, start, end);
+    }
+
+    /*
+    * Same as above for callers that already computed the query's fingerprint. Known-allowed
+    * query shapes are answered from the cache; blocked ones are always re-scanned, they need
+    * the statement details anyway.
+     */
+    public StatementMatch findBlockingStatement(ByteBuf buf, int start, int end, long fingerprint) {
+        return findBlockingStatement(rules, buf, start, end, fingerprint);
+    }
+
+    private StatementMatch findBlockingStatement(Rules current, ByteBuf buf, int start, int end, long fingerprint) {
+        ClassificationCache cache = current.cache();
+        if (cache == null) {
+            return scanStatements(current, buf, start, end);
+        }
+
+        int cached = cache.get(fingerprint);
+        if (cached == ClassificationCache.ALLOWED) {
+            metricsService.trackClassificationCacheHit();
+            return null;
+        }
+
+        StatementMatch blocking = scanStatements(current, buf, start, end);
+        if (cached == ClassificationCache.MISS) {
+            metricsService.trackClassificationCacheMiss();
+            int result = blocking == null ? ClassificationCache.ALLOWED : ClassificationCache.CRITICAL;
+            if (cache.put(fingerprint, result)) {
+                metricsService.trackClassificationCacheEviction();
+            }
+        } else {
+            metricsService.trackClassificationCacheHit();
+        }
+        return blocking;
+    }
+
+    private StatementMatch scanStatements(Rules current, ByteBuf buf, int start, int end) {
+        KeywordAutomaton automaton = current.automaton();
+        SqlLexer lexer = LEXERS.get().reset(buf, start, end);
+        try {
+            int index = 0;
+            while (true) {
+                // One pass over the statement's tokens; a critical match wins over any allowed match
+                int match = automaton.scan(lexer);
+
+                if (match >= 0 && automaton.kind(match) == KeywordAutomaton.CRITICAL) {
+                    log.debug("Statement {} classified as CRITICAL (matched: {})", index, automaton.keyword(match));
+                    int statementStart = lexer.statementStart();
+                    lexer.skipStatement();
+                    return new StatementMatch(index, statementStart, lexer.statementEnd(), automaton.keyword(match));
+                }
+
+                // Default policy for statements without any keyword
+                if (match == -1 && current.blockByDefault()) {
+                    log.debug("Statement {} classified as DEFAULT, blocked by default", index);
+                    return new StatementMatch(index, lexer.statementStart(), lexer.statementEnd(), null);
+                }
+
+                if (match != KeywordAutomaton.EMPTY) {
+                    index++;
+                }
+                if (lexer.atEnd()) {
+                    return null;
+                }
             }
+        } finally {
+            lexer.clear();
         }
+    }
 
-        // Checked allowed keywords
-        for (String keywords : allowedKeywords) {
-            if (upperSql.contains(keywords.toUpperCase())) {
-                log.debug("SQL classified as ALLOWED (matched: {})", keywords);
-                return Classification.ALLOWED;
+    /*
+    * Whether the SQL held in buf between (start, end) leaves session state on the backend,
+    * e.g. a session-level SET, a temporary table or an advisory lock.
+     */
+    public boolean changesSessionState(ByteBuf buf, int start, int end) {
+        SqlLexer lexer = LEXERS.get().reset(buf, start, end);
+        try {
+            while (true) {
+                int type = lexer.next();
+                if (type == SqlLexer.WORD) {
+                    int wordStart = lexer.tokenStart();
+                    int wordEnd = lexer.tokenEnd();
+                    if (isWord(buf, wordStart, wordEnd, SESSION_COMMANDS)) {
+                        boolean set = wordEnd - wordStart == 3 && equalsIgnoreCase(buf, wordStart, "SET");
+                        if (!set || lexer.next() != SqlLexer.WORD
+                                || !isWord(buf, lexer.tokenStart(), lexer.tokenEnd(), TRANSACTION_SET)) {
+                            return true;
+                        }
+                    }
+                }
+                if (type != SqlLexer.SEMICOLON && type != SqlLexer.EOF) {
+                    // Rest of the statement
+                    int match = SESSION_STATE.scan(lexer);
+                    if (match >= 0) {
+                        return true;
+                    }
+                }
+                if (lexer.atEnd()) {
+                    return false;
+                }
             }
+        } finally {
+            lexer.clear();
         }
+    }
 
-        // Default policy
-        return blockedByDefault ? Classification.CRITICAL : Classification.ALLOWED;
+    private static boolean isWord(ByteBuf buf, int start, int end, List<String> words) {
+        for (String word : words) {
+            if (end - start == word.length() && equalsIgnoreCase(buf, start, word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // word is upper-case ASCII
+    private static boolean equalsIgnoreCase(ByteBuf buf, int start, String word) {
+        for (int i = 0; i < word.length(); i++) {
+            byte b = buf.getByte(start + i);
+            if ((b >= 'a' && b <= 'z' ? b - 32 : b) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public boolean shouldBlock(String sql) {
         return classify(sql) == Classification.CRITICAL;
     }
+
+    public boolean shouldBlock(ByteBuf buf, int start, int end) {
+        return classify(buf, start, end) == Classification.CRITICAL;
+    }
+
+    public boolean shouldBlock(ByteBuf buf, int start, int end, long fingerprint) {
+        return findBlockingStatement(buf, start, end, fingerprint) != null;
+    }
 }
@@ -0,0 +1,351 @@
+package com.proxy.interceptor.proxy;
+
+import io.netty.buffer.ByteBuf;
+
+/*
+* Minimal streaming PostgreSQL lexer working directly on the message bytes.
+*
+* It only distinguishes what classification needs: words (keywords and identifiers) versus
+* everything that can never be a keyword - string literals (including E'' and U&''), quoted
+* identifiers, numbers, parameters and symbols. Dollar-quoted bodies are reported apart: they
+* are usually function or DO bodies, i.e. code. Whitespace, line comments and nested block
+* comments are skipped. Tokens are reported as index ranges into the buffer, nothing is
+* copied.
+*
+* Instances are reusable and not thread-safe.
+ */
+public final class SqlLexer {
+
+    public static final int EOF = 0;
+    public static final int WORD = 1;
+    public static final int NUMBER = 2;
+    public static final int STRING = 3;
+    public static final int QUOTED_IDENTIFIER = 4;
+    public static final int PARAMETER = 5;
+    public static final int SEMICOLON = 6;
+    public static final int SYMBOL = 7;
+    /*
+    * A plain '...' literal containing a backslash. Its extent depends on the session's
+    * standard_conforming_strings, which the proxy does not know, so the lexer gives up and
+    * reports everything from the opening quote to the end of input as one raw token.
+     */
+    public static final int RAW = 8;
+    /*
+    * $$...$$ or $tag$...$tag$. The body, without the tags, is available from contentStart()
+    * and contentEnd().
+     */
+    public static final int DOLLAR_STRING = 9;
+
+    private ByteBuf buf;
+    private int pos;
+    private int end;
+    private int tokenStart;
+    private int tokenEnd;
+    private int contentStart;
+    private int contentEnd;
+    private int lastType;
+    // Extent of the current statement's tokens, not counting the terminating ';'
+    private int statementStart;
+    private int statementEnd;
+
+    public SqlLexer reset(ByteBuf buf, int start, int end) {
+        this.buf = buf;
+        this.pos = start;
+        this.end = end;
+        this.tokenStart = start;
+        this.tokenEnd = start;
+        this.lastType = SYMBOL;
+        this.statementStart = -1;
+        this.statementEnd = -1;
+        return this;
+    }
+
+    /*
+    * Drop the buffer reference once the caller is done with it.
+     */
+    public void clear() {
+        this.buf = null;
+    }
+
+    public ByteBuf buffer() {
+        return buf;
+    }
+
+    public int tokenStart() {
+        return tokenStart;
+    }
+
+    public int tokenEnd() {
+        return tokenEnd;
+    }
+
+    public int contentStart() {
+        return contentStart;
+    }
+
+    public int contentEnd() {
+        return contentEnd;
+    }
+
+    public int statementStart() {
+        return statementStart;
+    }
+
+    public int statementEnd() {
+        return statementEnd;
+    }
+
+    public boolean atEnd() {
+        return lastType == EOF;
+    }
+
+    /*
+    * Consume the rest of the current statement, up to and including its ';'.
+     */
+    public void skipStatement() {
+        int type = lastType;
+        while (type != EOF && type != SEMICOLON) {
+            type = next();
+        }
+    }
+
+    public int next() {
+        skipWhitespaceAndComments();
+        tokenStart = pos;
+        if (pos >= end) {
+            tokenEnd = pos;
+            lastType = EOF;
+            return EOF;
+        }
+
+        byte b = buf.getByte(pos);
+        int type;
+
+        if (b == '\'') {
+            type = plainString();
+        } else if (b == '"') {
+            pos = skipQuoted(pos + 1, (byte) '"');
+            type = QUOTED_IDENTIFIER;
+        } else if (b == '$') {
+            type = dollar();
+        } else if (b == ';') {
+            pos++;
+            type = SEMICOLON;
+        } else if (isDigit(b) || (b == '.' && pos + 1 < end && isDigit(buf.getByte(pos + 1)))) {
+            pos = skipWhile(pos + 1, true);
+            type = NUMBER;
+        } else if (isIdentStart(b)) {
+            type = wordOrPrefixedString();
+        } else {
+            pos++;
+            type = SYMBOL;
+        }
+
+        tokenEnd = pos;
+        if (type != SEMICOLON) {
+            if (statementStart < 0 || lastType == SEMICOLON) {
+                statementStart = tokenStart;
+            }
+            statementEnd = tokenEnd;
+        }
+        lastType = type;
+        return type;
+    }
+
+    private void skipWhitespaceAndComments() {
+        while (pos < end) {
+            byte b = buf.getByte(pos);
+            if (b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f') {
+                pos++;
+            } else if (b == '-' && pos + 1 < end && buf.getByte(pos + 1) == '-') {
+                skipLineComment();
+            } else if (b == '/' && pos + 1 < end && buf.getByte(pos + 1) == '*') {
+                skipBlockComment();
+            } else {
+                return;
+            }
+        }
+    }
+
+    // Like PostgreSQL's scanner, a line comment ends at either '\n' or '\r'
+    private void skipLineComment() {
+        pos += 2;
+        while (pos < end) {
+            byte b = buf.getByte(pos++);
+            if (b == '\n' || b == '\r') {
+                return;
+            }
+        }
+    }
+
+    // Block comments nest in PostgreSQL
+    private void skipBlockComment() {
+        int depth = 1;
+        pos += 2;
+        while (pos < end && depth > 0) {
+            byte b = buf.getByte(pos);
+            if (b == '*' && pos + 1 < end && buf.getByte(pos + 1) == '/') {
+                depth--;
+                pos += 2;
+            } else if (b == '/' && pos + 1 < end && buf.getByte(pos + 1) == '*') {
+                depth++;
+                pos += 2;
+            } else {
+                pos++;
+            }
+        }
+    }
+
+    private int plainString() {
+        int close = skipQuoted(pos + 1, (byte) '\'');
+        if (buf.indexOf(pos + 1, close, (byte) '\\') >= 0) {
+            pos = end;
+            return RAW;
+        }
+        pos = close;
+        return STRING;
+    }
+
+    private int wordOrPrefixedString() {
+        int wordEnd = skipWhile(pos + 1, false);
+        int length = wordEnd - pos;
+        byte first = (byte) (buf.getByte(pos) & ~0x20);
+
+        if (length == 1 && wordEnd < end) {
+            byte quote = buf.getByte(wordEnd);
+            if (quote == '\'') {
+                if (first == 'E') {
+                    // Escape string: backslash always escapes
+                    pos = skipEscapeString(wordEnd + 1);
+                    return STRING;
+                }
+                if (first == 'B' || first == 'X' || first == 'N') {
+                    pos = wordEnd;
+                    return plainString();
+                }
+            }
+            // Unicode escapes: U&'...' and U&"..."
+            if (first == 'U' && quote == '&' && wordEnd + 1 < end) {
+                byte next = buf.getByte(wordEnd + 1);
+                if (next == '\'') {
+                    pos = wordEnd + 1;
+                    return plainString();
+                }
+                if (next == '"') {
+                    pos = skipQuoted(wordEnd + 2, (byte) '"');
+                    return QUOTED_IDENTIFIER;
+                }
+            }
+        }
+
+        pos = wordEnd;
+        return WORD;
+    }
+
+    private int dollar() {
+        // Positional parameter: $1, $2, ...
+        if (pos + 1 < end && isDigit(buf.getByte(pos + 1))) {
+            pos = skipWhile(pos + 1, true);
+            return PARAMETER;
+        }
+
+        // Dollar-quote opening tag: $$ or $tag$
+        int tagEnd = pos + 1;
+        if (tagEnd < end && isIdentStart(buf.getByte(tagEnd))) {
+            while (tagEnd < end && isTagByte(buf.getByte(tagEnd))) {
+                tagEnd++;
+            }
+        }
+        if (tagEnd >= end || buf.getByte(tagEnd) != '$') {
+            pos++;
+            return SYMBOL;
+        }
+
+        int tagStart = pos;
+        int tagLength = tagEnd - tagStart + 1;
+        int i = tagEnd + 1;
+        contentStart = i;
+        while (true) {
+            int candidate = buf.indexOf(i, end, (byte) '$');
+            if (candidate < 0 || candidate + tagLength > end) {
+                pos = end; // Unterminated, PostgreSQL will reject it
+                contentEnd = end;
+                return DOLLAR_STRING;
+            }
+            if (regionMatches(candidate, tagStart, tagLength)) {
+                pos = candidate + tagLength;
+                contentEnd = candidate;
+                return DOLLAR_STRING;
+            }
+            i = candidate + 1;
+        }
+    }
+
+    /*
+    * Skip to just after the closing quote; a doubled quote is an escaped quote.
+     */
+    private int skipQuoted(int i, byte quote) {
+        while (i < end) {
+            if (buf.getByte(i) == quote) {
+                if (i + 1 < end && buf.getByte(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return end;
+    }
+
+    private int skipEscapeString(int i) {
+        while (i < end) {
+            byte b = buf.getByte(i);
+            if (b == '\\') {
+                i += 2;
+            } else if (b == '\'') {
+                if (i + 1 < end && buf.getByte(i + 1) == '\'') {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return end;
+    }
+
+    private int skipWhile(int i, boolean number) {
+        while (i < end) {
+            byte b = buf.getByte(i);
+            if (!(KeywordAutomaton.isWordByte(b) || (number && b == '.'))) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private boolean regionMatches(int a, int b, int length) {
+        for (int k = 0; k < length; k++) {
+            if (buf.getByte(a + k) != buf.getByte(b + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isIdentStart(byte b) {
+        return (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || b == '_' || b < 0;
+    }
+
+    // Dollar-quote tags follow identifier rules but cannot contain '$'
+    private static boolean isTagByte(byte b) {
+        return isIdentStart(b) || isDigit(b);
+    }
+}
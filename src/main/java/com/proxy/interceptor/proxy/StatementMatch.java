@@ -0,0 +1,13 @@
+package com.proxy.interceptor.proxy;
+
+/*
+* The statement of a (possibly multi-statement) query that requires approval.
+* start/end index the statement's bytes in the message, index is its 0-based position.
+* keyword is the critical keyword that matched, or null when held by the block-by-default policy.
+ */
+public record StatementMatch(
+        int index,
+        int start,
+        int end,
+        String keyword
+) {}
@@ -0,0 +1,181 @@
+package com.proxy.interceptor.proxy;
+
+import com.proxy.interceptor.service.MetricsService;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.*;
+import io.netty.util.concurrent.EventExecutor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+* Pre-connected TCP channels to the target, kept per worker event loop so a new client's
+* StartupMessage can be forwarded without waiting for a connect.
+*
+* Warm channels have not sent a StartupMessage yet, and PostgreSQL drops such connections
+* after authentication_timeout (60s by default), so they are recycled after maxIdleMillis.
+* Each loop's channels are only touched from that loop; replenishing happens asynchronously
+* on the loop after every take, expiry and failure.
+ */
+@Slf4j
+public class WarmConnectionPool {
+
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final EventLoopGroupFactory eventLoopGroupFactory;
+    private final String targetHost;
+    private final int targetPort;
+    private final WriteBufferWaterMark serverWaterMark;
+    private final int sizePerLoop;
+    private final long maxIdleNanos;
+    private final MetricsService metricsService;
+
+    private final ConcurrentHashMap<EventLoop, Loop> loops = new ConcurrentHashMap<>();
+
+    private static final class Loop {
+        final ArrayDeque<Warm> idle = new ArrayDeque<>();
+        int connecting;
+        boolean retryScheduled;
+    }
+
+    private record Warm(Channel channel, long connectedAt) {}
+
+    public WarmConnectionPool(EventLoopGroupFactory eventLoopGroupFactory,
+                              String targetHost,
+                              int targetPort,
+                              WriteBufferWaterMark serverWaterMark,
+                              int sizePerLoop,
+                              long maxIdleMillis,
+                              MetricsService metricsService) {
+        this.eventLoopGroupFactory = eventLoopGroupFactory;
+        this.targetHost = targetHost;
+        this.targetPort = targetPort;
+        this.serverWaterMark = serverWaterMark;
+        this.sizePerLoop = sizePerLoop;
+        this.maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleMillis);
+        this.metricsService = metricsService;
+    }
+
+    /*
+    * Fill every worker loop and start recycling channels before the server times them out.
+     */
+    public void start(EventLoopGroup workerGroup) {
+        for (EventExecutor executor : workerGroup) {
+            EventLoop loop = (EventLoop) executor;
+            loop.execute(() -> replenish(loop));
+            loop.scheduleWithFixedDelay(() -> evictExpired(loop),
+                    maxIdleNanos / 2, maxIdleNanos / 2, TimeUnit.NANOSECONDS);
+        }
+        log.info("Keeping {} warm backend connections per event loop", sizePerLoop);
+    }
+
+    /*
+    * Take a connected channel for the calling event loop with handler installed, or null on a miss.
+     */
+    public Channel poll(EventLoop loop, ChannelHandler handler) {
+        Loop state = state(loop);
+        long now = System.nanoTime();
+        Warm warm;
+        Channel channel = null;
+        while ((warm = state.idle.pollFirst()) != null) {
+            if (warm.channel().isActive() && now - warm.connectedAt() < maxIdleNanos) {
+                channel = warm.channel();
+                break;
+            }
+            warm.channel().close();
+        }
+
+        if (channel != null) {
+            channel.pipeline().replace(WarmChannelHandler.class, null, handler);
+            metricsService.trackWarmPoolHit();
+        } else {
+            metricsService.trackWarmPoolMiss();
+        }
+        loop.execute(() -> replenish(loop));
+        return channel;
+    }
+
+    private void replenish(EventLoop loop) {
+        Loop state = state(loop);
+        while (state.idle.size() + state.connecting < sizePerLoop) {
+            state.connecting++;
+            connect(loop).addListener((ChannelFutureListener) future -> {
+                state.connecting--;
+                if (future.isSuccess()) {
+                    state.idle.addLast(new Warm(future.channel(), System.nanoTime()));
+                } else {
+                    log.debug("Warm connection to {}:{} failed: {}", targetHost, targetPort, future.cause().getMessage());
+                    scheduleRetry(loop, state);
+                }
+            });
+        }
+    }
+
+    // Back off instead of hammering a target that is down
+    private void scheduleRetry(EventLoop loop, Loop state) {
+        if (!state.retryScheduled) {
+            state.retryScheduled = true;
+            loop.schedule(() -> {
+                state.retryScheduled = false;
+                replenish(loop);
+            }, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void evictExpired(EventLoop loop) {
+        Loop state = state(loop);
+        long now = System.nanoTime();
+        state.idle.removeIf(warm -> {
+            if (warm.channel().isActive() && now - warm.connectedAt() < maxIdleNanos) {
+                return false;
+            }
+            warm.channel().close();
+            return true;
+        });
+        replenish(loop);
+    }
+
+    private ChannelFuture connect(EventLoop loop) {
+        return new Bootstrap()
+                .group(loop)
+                .channel(eventLoopGroupFactory.getSocketChannelClass())
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, serverWaterMark)
+                .handler(new WarmChannelHandler(loop))
+                .connect(targetHost, targetPort);
+    }
+
+    private Loop state(EventLoop loop) {
+        return loops.computeIfAbsent(loop, l -> new Loop());
+    }
+
+    /*
+    * Placeholder until a client takes the channel: drops it from the pool if the server closes it.
+     */
+    private final class WarmChannelHandler extends ChannelInboundHandlerAdapter {
+
+        private final EventLoop loop;
+
+        WarmChannelHandler(EventLoop loop) {
+            this.loop = loop;
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            Channel channel = ctx.channel();
+            if (state(loop).idle.removeIf(warm -> warm.channel() == channel)) {
+                replenish(loop);
+            }
+            ctx.fireChannelInactive();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+    }
+}
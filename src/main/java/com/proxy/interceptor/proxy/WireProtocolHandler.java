@@ -6,106 +6,143 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
 import java.nio.charset.StandardCharsets;
-import java.util.Optional;
+import java.util.HashMap;
+import java.util.Map;
 
 @Component
 @Slf4j
 public class WireProtocolHandler {
 
     /*
-    * Parse a Simple Query(Q) message and extract the SQL.
+    * Locate the SQL of a Simple Query(Q) message without copying it.
     * Format: 'Q' (1 byte) + Length (4 bytes) + Query String + null-terminator (1 byte)
+    * Returns the index of the null-terminator (end of SQL, exclusive), or -1 if malformed.
+    * The SQL starts at simpleQueryStart(buf).
      */
-    public Optional<String> parseSimpleQuery(ByteBuf buf) {
-        if (buf.readableBytes() < 5) {
-            return Optional.empty();
+    public int simpleQueryEnd(ByteBuf buf) {
+        if (buf.readableBytes() < 6 || buf.getByte(buf.readerIndex()) != 'Q') {
+            return -1;
         }
 
-        buf.markReaderIndex();
-        byte messageType = buf.readByte();
-
-        if (messageType != 'Q') {
-            buf.resetReaderIndex();
-            return Optional.empty();
+        int length = buf.getInt(buf.readerIndex() + 1); // Includes itself but not the type byte
+        if (length < 5 || buf.readableBytes() < 1 + length) {
+            return -1;
         }
 
-        int length = buf.readInt(); // Includes itself but not the type byte
-        int queryLength = length - 4 - 1; // Subtract length field and null terminator
-
-        if (buf.readableBytes() < queryLength + 1) {
-            buf.resetReaderIndex();
-            return Optional.empty();
-        }
+        int end = buf.readerIndex() + length; // Position of the null-terminator
+        return buf.getByte(end) == 0 ? end : -1;
+    }
 
-        byte[] queryBytes = new byte[queryLength];
-        buf.readBytes(queryBytes);
-        buf.readByte(); // Skip null terminator
+    public int simpleQueryStart(ByteBuf buf) {
+        return buf.readerIndex() + 5;
+    }
 
-        String sql = new String(queryBytes, StandardCharsets.UTF_8);
-        log.debug("Parsed Simple Query: {}", sql.substring(0, Math.min(100, sql.length())));
+    /*
+    * Parameters of a StartupMessage (user, database, options, ...).
+    * Format: Length (4 bytes) + Protocol Version (4 bytes) + (Name (C-string) + Value (C-string))* + null-terminator
+     */
+    public Map<String, String> startupParameters(ByteBuf buf) {
+        Map<String, String> parameters = new HashMap<>();
+        if (buf.readableBytes() < 8) {
+            return parameters;
+        }
 
-        return Optional.of(sql);
+        int end = buf.readerIndex() + Math.min(buf.getInt(buf.readerIndex()), buf.readableBytes());
+        int i = buf.readerIndex() + 8;
+        while (i < end && buf.getByte(i) != 0) {
+            int nameEnd = buf.indexOf(i, end, (byte) 0);
+            int valueEnd = nameEnd < 0 ? -1 : buf.indexOf(nameEnd + 1, end, (byte) 0);
+            if (valueEnd < 0) {
+                break;
+            }
+            parameters.put(readSql(buf, i, nameEnd), readSql(buf, nameEnd + 1, valueEnd));
+            i = valueEnd + 1;
+        }
+        return parameters;
     }
 
     /*
-    * Parse a Parse (P) message to extract query preview for Extended Protocol.
+    * Locate the SQL of a Parse (P) message for Extended Protocol without copying it.
     * Format: 'P' (1 byte) + Length (4 bytes) + Statement Name (C-string) + Query (C-string) + ...
+    * Returns the start index of the query, or -1 if malformed. The end is found with cStringEnd().
      */
-
-    public Optional<String> parseExtendedQuery(ByteBuf buf) {
-        if (buf.readableBytes() < 5) {
-            return Optional.empty();
+    public int extendedQueryStart(ByteBuf buf) {
+        if (buf.readableBytes() < 5 || buf.getByte(buf.readerIndex()) != 'P') {
+            return -1;
         }
 
-        buf.markReaderIndex();
-        try {
-            byte messageType = buf.readByte();
+        int length = buf.getInt(buf.readerIndex() + 1);
+        if (length < 4 || buf.readableBytes() < 1 + length) {
+            return -1;
+        }
 
-            if (messageType != 'P') {
-                buf.resetReaderIndex();
-                return Optional.empty();
-            }
+        // Skip statement name (C-string)
+        int nameEnd = cStringEnd(buf, buf.readerIndex() + 5);
+        return nameEnd < 0 ? -1 : nameEnd + 1;
+    }
 
-            int length = buf.readInt();
-            if (length < 4) {
-                buf.resetReaderIndex();
-                return Optional.empty();
-            }
+    /*
+    * Find the null-terminator of a C-string starting at 'from' within the current message.
+    * Returns -1 if the terminator is not found before the end of the message.
+     */
+    public int cStringEnd(ByteBuf buf, int from) {
+        int messageEnd = buf.readerIndex() + 1 + buf.getInt(buf.readerIndex() + 1);
+        if (from >= messageEnd) {
+            return -1;
+        }
+        return buf.indexOf(from, messageEnd, (byte) 0);
+    }
 
-            // Remaining bytes after reading 4 byte length
-            int remainingBytes = length - 4;
-            if (buf.readableBytes() < remainingBytes) {
-                buf.resetReaderIndex();
-                return Optional.empty();
-            }
+    /*
+    * Statement name of a Parse (P) message, or null if malformed.
+     */
+    public String parseStatementName(ByteBuf buf) {
+        int start = extendedQueryStart(buf);
+        return start < 0 ? null : readSql(buf, buf.readerIndex() + 5, start - 1);
+    }
 
-            // Prevent reading into next message
-            int messageEndIndex = buf.readerIndex() + remainingBytes;
+    /*
+    * Statement name referenced by a Bind (B) message, or null if malformed.
+    * Format: 'B' (1 byte) + Length (4 bytes) + Portal Name (C-string) + Statement Name (C-string) + ...
+     */
+    public String bindStatementName(ByteBuf buf) {
+        if (buf.readableBytes() < 5 || buf.getByte(buf.readerIndex()) != 'B') {
+            return null;
+        }
 
-            // Skip statement name (C-string)
-            if (!skipCString(buf, messageEndIndex)) {
-                buf.resetReaderIndex();
-                return Optional.empty();
-            }
+        int length = buf.getInt(buf.readerIndex() + 1);
+        if (length < 4 || buf.readableBytes() < 1 + length) {
+            return null;
+        }
 
-            // Read query (C-string) as UTF-8 bytes
-            Optional<String> sqlOpt = readCStringUtf8(buf, messageEndIndex);
-            if (sqlOpt.isEmpty()) {
-                buf.resetReaderIndex();
-                return Optional.empty();
-            }
+        int portalEnd = cStringEnd(buf, buf.readerIndex() + 5);
+        int nameEnd = portalEnd < 0 ? -1 : cStringEnd(buf, portalEnd + 1);
+        return nameEnd < 0 ? null : readSql(buf, portalEnd + 1, nameEnd);
+    }
 
-            String sql = sqlOpt.get();
+    /*
+    * Statement name closed by a Close (C) message, or null if it closes a portal or is malformed.
+    * Format: 'C' (1 byte) + Length (4 bytes) + 'S' or 'P' (1 byte) + Name (C-string)
+     */
+    public String closeStatementName(ByteBuf buf) {
+        if (buf.readableBytes() < 6 || buf.getByte(buf.readerIndex()) != 'C') {
+            return null;
+        }
 
-            buf.resetReaderIndex();
+        int length = buf.getInt(buf.readerIndex() + 1);
+        if (length < 5 || buf.readableBytes() < 1 + length || buf.getByte(buf.readerIndex() + 5) != 'S') {
+            return null;
+        }
 
-            log.debug("Parsed Extended Query: {}", sql.substring(0, Math.min(100, sql.length())));
+        int nameEnd = cStringEnd(buf, buf.readerIndex() + 6);
+        return nameEnd < 0 ? null : readSql(buf, buf.readerIndex() + 6, nameEnd);
+    }
 
-            return Optional.of(sql);
-        } catch (IndexOutOfBoundsException e) {
-            buf.resetReaderIndex();
-            return Optional.empty();
-        }
+    /*
+    * Decode the SQL text between (start, end). Only called once a query needs to be persisted.
+     */
+    public String readSql(ByteBuf buf, int start, int end) {
+        return buf.toString(start, end - start, StandardCharsets.UTF_8);
     }
 
     /*
@@ -153,10 +190,18 @@ public class WireProtocolHandler {
     * Create a ReadyForQuery message to unblock the client.
      */
     public ByteBuf createReadyForQuery() {
+        return createReadyForQuery((byte) 'I');
+    }
+
+    /*
+    * Create a ReadyForQuery message carrying the backend's real transaction status:
+    * 'I' idle, 'T' in a transaction block, 'E' in a failed transaction block.
+     */
+    public ByteBuf createReadyForQuery(byte transactionStatus) {
         ByteBuf buf = Unpooled.buffer(6);
         buf.writeByte('Z'); // ReadyForQuery
         buf.writeInt(5); // Length
-        buf.writeByte('I'); // Transaction status: Idle
+        buf.writeByte(transactionStatus);
         return buf;
     }
 
@@ -172,52 +217,18 @@ public class WireProtocolHandler {
     }
 
     /*
-    * Get message type from buffer without consuming
-     */
-    public char peekMessageType(ByteBuf buf) {
-        if (buf.readableBytes() < 1) return '\0';
-        return (char) buf.getByte(buf.readerIndex());
-    }
-
-    /*
-    * Skips a null-terminated. C-string within (currentReaderIndex, messageEndIndex).
-    * Returns true if we found a null terminator, false otherwise.
+    * Client messages after which the server expects to act, so buffered writes must be flushed:
+    * Query, Sync, Flush, Terminate, CopyDone and CopyFail.
      */
-    private boolean skipCString(ByteBuf buf, int messageEndIndex) {
-        while (buf.readerIndex() < messageEndIndex) {
-            if (buf.readByte() == 0) {
-                return true; // null-terminator
-            }
-        }
-        return false; // null-terminator not found
+    public boolean isFlushBoundary(byte type) {
+        return type == 'Q' || type == 'S' || type == 'H' || type == 'X' || type == 'c' || type == 'f';
     }
 
     /*
-    * Reads a null-terminated C-string as UTF-8 within (currentReaderIndex, messageEndIndex).
-    * Returns Optional.empty() if terminator not found.
+    * Get message type from buffer without consuming
      */
-    private Optional<String> readCStringUtf8(ByteBuf buf, int messageEndIndex) {
-        int start = buf.readerIndex();
-
-        int end = start;
-        while (end < messageEndIndex) {
-            if (buf.getByte(end) == 0) {
-                break;
-            }
-            end++;
-        }
-
-        if (end >= messageEndIndex) {
-            return Optional.empty();
-        }
-
-        int len = end - start;
-
-        byte[] bytes = new byte[len];
-        buf.readBytes(bytes);
-
-        buf.readByte();
-
-        return Optional.of(new String(bytes, StandardCharsets.UTF_8));
+    public char peekMessageType(ByteBuf buf) {
+        if (buf.readableBytes() < 1) return '\0';
+        return (char) buf.getByte(buf.readerIndex());
     }
 }
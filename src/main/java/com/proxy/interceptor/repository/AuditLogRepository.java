@@ -11,12 +11,10 @@ import java.util.Optional;
 @Repository
 public interface AuditLogRepository extends JpaRepository<AuditLog, Long> {
 
-    List<AuditLog> findTop100ByOrderByTimestampDesc();
+    List<AuditLog> findTop100ByTimestampAfterOrderByTimestampDesc(Instant since);
 
     List<AuditLog> findByUsernameOrderByTimestampDesc(String username);
 
     // For replay protection
     Optional<AuditLog> findByRequestHash(String requestHash);
-
-    void deleteByTimestampBefore(Instant cutoffTime);
 }
@@ -3,10 +3,13 @@ package com.proxy.interceptor.repository;
 import com.proxy.interceptor.model.BlockedQuery;
 import com.proxy.interceptor.model.Status;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -23,4 +26,11 @@ public interface BlockedQueryRepository extends JpaRepository<BlockedQuery, Long
     List<BlockedQuery> findExpiredPendingQueries(Instant expireTime);
 
     List<BlockedQuery> findTop100ByOrderByCreatedAtDesc();
+
+    // Bulk resolution, e.g. of expired queries; rows resolved in the meantime are left alone
+    @Modifying
+    @Transactional
+    @Query("UPDATE BlockedQuery bq SET bq.status = :status, bq.resolvedAt = :resolvedAt, bq.resolvedBy = :resolvedBy " +
+            "WHERE bq.id IN :ids AND bq.status = 'PENDING'")
+    int resolvePending(Collection<Long> ids, Status status, Instant resolvedAt, String resolvedBy);
 }
@@ -0,0 +1,31 @@
+package com.proxy.interceptor.repository;
+
+import com.proxy.interceptor.model.QueryApproval;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface QueryApprovalRepository extends JpaRepository<QueryApproval, Long> {
+
+    // Insert or change a user's vote and adjust the query's counters by the given deltas,
+    // in one statement. Deltas commute, so concurrent votes never overwrite each other's counts.
+    @Modifying
+    @Transactional
+    @Query(value = """
+            WITH upsert AS (
+                INSERT INTO query_approvals (blocked_query_id, username, vote, voted_at)
+                VALUES (:queryId, :username, :vote, now())
+                ON CONFLICT (blocked_query_id, username)
+                DO UPDATE SET vote = EXCLUDED.vote, voted_at = EXCLUDED.voted_at
+                RETURNING blocked_query_id
+            )
+            UPDATE blocked_queries
+            SET approval_count = approval_count + :approvalDelta,
+                rejection_count = rejection_count + :rejectionDelta
+            WHERE id IN (SELECT blocked_query_id FROM upsert)
+            """, nativeQuery = true)
+    int upsertVote(Long queryId, String username, String vote, int approvalDelta, int rejectionDelta);
+}
@@ -0,0 +1,179 @@
+package com.proxy.interceptor.service;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/*
+* Bounded multi-producer, single-consumer ring of audit events.
+*
+* Slots are allocated once and reused. A producer claims the next sequence with a CAS on the
+* head, fills the slot and publishes it by writing the sequence into the slot's marker; the
+* consumer takes slots in sequence order as long as their marker matches, then moves the tail,
+* which hands the slots back to producers. Producers never wait on each other beyond the CAS,
+* and the consumer never takes a lock.
+*
+* When the ring is full, BLOCK parks the producer until the consumer catches up, DROP discards
+* the event and counts it. An idle consumer parks in await() until a producer publishes.
+ */
+public final class AuditRingBuffer {
+
+    public enum Overflow { BLOCK, DROP }
+
+    private static final long FULL_PARK_NANOS = 100_000;
+
+    public static final class Slot {
+        private String username;
+        private String action;
+        private String details;
+        private String ipAddress;
+        private String requestHash;
+        private Instant timestamp;
+
+        public String username() {
+            return username;
+        }
+
+        public String action() {
+            return action;
+        }
+
+        public String details() {
+            return details;
+        }
+
+        public String ipAddress() {
+            return ipAddress;
+        }
+
+        public String requestHash() {
+            return requestHash;
+        }
+
+        public Instant timestamp() {
+            return timestamp;
+        }
+
+        private void clear() {
+            username = action = details = ipAddress = requestHash = null;
+            timestamp = null;
+        }
+    }
+
+    private final Slot[] slots;
+    private final AtomicLongArray published;
+    private final int mask;
+    private final Overflow overflow;
+
+    private final AtomicLong head = new AtomicLong();
+    private volatile long tail;
+    private volatile Thread consumer; // set while the consumer is parked in await()
+    private final LongAdder dropped = new LongAdder();
+
+    public AuditRingBuffer(int capacity, Overflow overflow) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.slots = new Slot[capacity];
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+            published.set(i, -1);
+        }
+        this.mask = capacity - 1;
+        this.overflow = overflow;
+    }
+
+    /*
+    * Publish an event. Returns false if it was dropped because the ring is full.
+     */
+    public boolean publish(String username, String action, String details, String ipAddress,
+                           String requestHash, Instant timestamp) {
+        long seq;
+        while (true) {
+            seq = head.get();
+            if (seq - tail >= slots.length) {
+                if (overflow == Overflow.DROP) {
+                    dropped.increment();
+                    return false;
+                }
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+                continue;
+            }
+            if (head.compareAndSet(seq, seq + 1)) {
+                break;
+            }
+        }
+
+        int index = (int) seq & mask;
+        Slot slot = slots[index];
+        slot.username = username;
+        slot.action = action;
+        slot.details = details;
+        slot.ipAddress = ipAddress;
+        slot.requestHash = requestHash;
+        slot.timestamp = timestamp;
+        published.set(index, seq);
+        Thread waiting = consumer;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+        return true;
+    }
+
+    /*
+    * Park the consumer until an event is published, or it is unparked otherwise. Returns right
+    * away when one already is. Consumer thread only.
+     */
+    public void await() {
+        consumer = Thread.currentThread();
+        // Checked after announcing the consumer: a producer either sees it or published before
+        if (!available()) {
+            LockSupport.park(this);
+        }
+        consumer = null;
+    }
+
+    private boolean available() {
+        long next = tail;
+        return published.get((int) next & mask) == next;
+    }
+
+    /*
+    * Hand up to max published events to the sink, in sequence order. Consumer thread only; the
+    * slots are reused once this returns, so the sink must copy what it keeps.
+     */
+    public int drain(int max, Consumer<Slot> sink) {
+        long next = tail;
+        int drained = 0;
+        while (drained < max) {
+            int index = (int) next & mask;
+            if (published.get(index) != next) {
+                break;
+            }
+            Slot slot = slots[index];
+            sink.accept(slot);
+            slot.clear();
+            next++;
+            drained++;
+        }
+        tail = next;
+        return drained;
+    }
+
+    // Claimed but not yet drained, including events still being written
+    public long depth() {
+        return head.get() - tail;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+}
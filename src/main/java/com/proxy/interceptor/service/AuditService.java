@@ -2,53 +2,178 @@ package com.proxy.interceptor.service;
 
 import com.proxy.interceptor.model.AuditLog;
 import com.proxy.interceptor.repository.AuditLogRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Timestamp;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
+/*
+* Audit events are published into an AuditRingBuffer and written by a single consumer thread
+* in JDBC batches, so callers never wait on the database. Events show up in the queries below
+* once their batch is written.
+*
+* A failed batch is retried with exponential backoff, meanwhile the ring fills up and applies
+* its overflow policy. If it still fails it is written row by row, so only the events that
+* cannot be inserted are lost; each of them is logged and counted as dropped.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class AuditService {
 
+    private static final String INSERT_SQL = "INSERT INTO audit_logs " +
+            "(username, action, details, ip_address, timestamp, request_hash) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private static final long RETRY_BACKOFF_MILLIS = 100;
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 5_000;
+
     private final AuditLogRepository auditLogRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final MetricsService metricsService;
 
     @Value("${audit.retention-days}")
     private int retentionDays;
 
+    // Power of two
+    @Value("${audit.buffer.capacity}")
+    private int bufferCapacity;
+
+    @Value("${audit.buffer.batch-size}")
+    private int batchSize;
+
+    // "block" or "drop"
+    @Value("${audit.buffer.overflow}")
+    private String overflow;
+
+    // Attempts at a failed batch before it is written row by row
+    @Value("${audit.buffer.retry-attempts}")
+    private int retryAttempts;
+
+    // audit_logs has one partition per UTC day, created this many days in advance
+    @Value("${audit.partitions.days-ahead}")
+    private int partitionDaysAhead;
+
+    @Value("${audit.recent-window-days}")
+    private int recentWindowDays;
+
+    private final ScheduledExecutorService partitionMaintenance = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("audit-partitions").daemon().factory());
+
+    private AuditRingBuffer buffer;
+    private Thread writer;
+    private volatile boolean stopped;
+
+    @PostConstruct
+    void start() {
+        // Partitions for today and the days ahead must exist before the first insert
+        maintainPartitions();
+        partitionMaintenance.scheduleAtFixedRate(this::maintainPartitions, 1, 1, TimeUnit.DAYS);
+
+        buffer = new AuditRingBuffer(bufferCapacity, AuditRingBuffer.Overflow.valueOf(overflow.toUpperCase()));
+        writer = Thread.ofPlatform().name("audit-writer").daemon().start(this::drain);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        partitionMaintenance.shutdownNow();
+        stopped = true;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
     public void log(String username, String action, String details, String ipAddress) {
-        AuditLog auditLog = AuditLog.builder()
-                .username(username != null ? username : "SYSTEM")
-                .action(action)
-                .details(details)
-                .ipAddress(ipAddress)
-                .build();
-
-        auditLogRepository.save(auditLog);
-        log.debug("Audit: {} - {} - {}", username, action, details);
+        publish(username, action, details, ipAddress, null);
     }
 
     public void logWithHash(String username, String action, String details, String ipAddress, String requestHash) {
-        AuditLog auditLog = AuditLog.builder()
-                .username(username != null ? username : "SYSTEM")
-                .action(action)
-                .details(details)
-                .ipAddress(ipAddress)
-                .requestHash(requestHash)
-                .build();
-
-        auditLogRepository.save(auditLog);
+        publish(username, action, details, ipAddress, requestHash);
+    }
+
+    private void publish(String username, String action, String details, String ipAddress, String requestHash) {
+        if (!buffer.publish(username != null ? username : "SYSTEM", action,
+                details != null && details.length() > 4000 ? details.substring(0, 4000) : details,
+                ipAddress, requestHash, Instant.now())) {
+            metricsService.trackAuditDropped();
+            log.warn("Audit buffer full, dropped: {} - {} - {}", username, action, details);
+            return;
+        }
+        log.debug("Audit: {} - {} - {}", username, action, details);
     }
 
+    private void drain() {
+        List<Object[]> rows = new ArrayList<>(batchSize);
+        while (true) {
+            long depth = buffer.depth();
+            buffer.drain(batchSize, slot -> rows.add(new Object[] {
+                    slot.username(), slot.action(), slot.details(), slot.ipAddress(),
+                    Timestamp.from(slot.timestamp()), slot.requestHash()
+            }));
+            if (rows.isEmpty()) {
+                if (stopped) {
+                    return;
+                }
+                buffer.await();
+                continue;
+            }
+            write(rows, depth);
+            rows.clear();
+        }
+    }
+
+    private void write(List<Object[]> rows, long depth) {
+        long backoff = RETRY_BACKOFF_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                jdbcTemplate.batchUpdate(INSERT_SQL, rows);
+                metricsService.trackAuditBatch(rows.size(), depth);
+                return;
+            } catch (Exception e) {
+                metricsService.trackError();
+                if (attempt >= retryAttempts || stopped) {
+                    log.error("Failed to write {} audit events in {} attempts, writing them one by one: {}",
+                            rows.size(), attempt, e.getMessage());
+                    break;
+                }
+                log.warn("Failed to write {} audit events, retrying in {} ms: {}", rows.size(), backoff, e.getMessage());
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoff));
+                backoff = Math.min(backoff * 2, MAX_RETRY_BACKOFF_MILLIS);
+            }
+        }
+
+        int written = 0;
+        for (Object[] row : rows) {
+            try {
+                jdbcTemplate.update(INSERT_SQL, row);
+                written++;
+            } catch (Exception e) {
+                metricsService.trackAuditDropped();
+                log.error("Dropped audit event {} - {} - {} at {}: {}", row[0], row[1], row[2], row[4], e.getMessage());
+            }
+        }
+        if (written > 0) {
+            metricsService.trackAuditBatch(written, depth);
+        }
+    }
+
+    // Bounded by time, so only the partitions of the window are scanned
     public List<AuditLog> getRecentLogs() {
-        return auditLogRepository.findTop100ByOrderByTimestampDesc();
+        return auditLogRepository.findTop100ByTimestampAfterOrderByTimestampDesc(
+                Instant.now().minus(recentWindowDays, ChronoUnit.DAYS));
     }
 
     public List<AuditLog> getLogsByUser(String username) {
@@ -60,12 +185,30 @@ public class AuditService {
         return auditLogRepository.findByRequestHash(requestHash).isPresent();
     }
 
-    // Cleanup old audit logs
-    @Scheduled(cron = "0 0 2 * * ? ") // Run at 2 AM daily
-    @Transactional
-    public void cleanupOldLogs() {
-        Instant cutoff = Instant.now().minus(retentionDays, ChronoUnit.DAYS);
-        auditLogRepository.deleteByTimestampBefore(cutoff);
-        log.info("Cleaned up audit logs older than {} days", retentionDays);
+    /*
+    * Create the daily partitions of the coming days and drop those past retention, a whole
+    * day's rows at a time. Both are idempotent. Rows caught by the default partition in the
+    * meantime are moved into the day's partition when it is created; any left over have no
+    * daily partition and are reported.
+     */
+    public void maintainPartitions() {
+        try {
+            LocalDate today = LocalDate.now(ZoneOffset.UTC);
+            Integer created = jdbcTemplate.queryForObject("SELECT audit_logs_create_partitions(?, ?)",
+                    Integer.class, today, today.plusDays(partitionDaysAhead));
+            Integer dropped = jdbcTemplate.queryForObject("SELECT audit_logs_drop_partitions(?)",
+                    Integer.class, today.minusDays(retentionDays));
+            log.info("Audit log partitions: {} created, {} older than {} days dropped", created, dropped, retentionDays);
+
+            long unpartitioned = jdbcTemplate.queryForObject("SELECT count(*) FROM audit_logs_default", Long.class);
+            metricsService.trackAuditDefaultPartitionRows(unpartitioned);
+            if (unpartitioned > 0) {
+                log.error("{} audit events are in the default partition, outside every daily partition", unpartitioned);
+                metricsService.trackError();
+            }
+        } catch (Exception e) {
+            log.error("Failed to maintain audit log partitions: {}", e.getMessage());
+            metricsService.trackError();
+        }
     }
 }
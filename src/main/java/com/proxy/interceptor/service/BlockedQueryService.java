@@ -1,22 +1,28 @@
 package com.proxy.interceptor.service;
 
+import com.proxy.interceptor.dto.ApprovalTally;
 import com.proxy.interceptor.dto.PendingQuery;
+import com.proxy.interceptor.dto.PendingQueryView;
 import com.proxy.interceptor.model.*;
 import com.proxy.interceptor.repository.BlockedQueryRepository;
+import com.proxy.interceptor.repository.QueryApprovalRepository;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 @Service
@@ -27,6 +33,12 @@ public class BlockedQueryService {
     private final BlockedQueryRepository blockedQueryRepository;
     private final RedisTemplate<String, Object> redisTemplate;
     private final AuditService auditService;
+    private final MetricsService metricsService;
+    private final HeldPayloadStore heldPayloadStore;
+    private final PendingQueryExpiry pendingQueryExpiry;
+    private final QueryApprovalRepository queryApprovalRepository;
+    private final PendingQueryReadModel pendingQueryReadModel;
+    private final BlockedQueryWriter blockedQueryWriter;
 
     @Value("${approval.peer-enabled}")
     private boolean peerApprovalEnabled;
@@ -35,129 +47,232 @@ public class BlockedQueryService {
     private int minVotes;
 
     // In-memory store for pending queries with their callbacks
-    private final ConcurrentHashMap<Long, PendingQuery> pendingQueries = new ConcurrentHashMap<>();
-
-    @Transactional
+    private final PendingQueryStore pendingQueries = new PendingQueryStore();
+
+    // Persistence and notifications for held queries, kept off the Netty event loops
+    private final ExecutorService holdExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /*
+    * Hold a query for approval. Called on the client's event loop, which only hands the work
+    * off and returns: the row is queued to the write-behind stage from a virtual thread, the
+    * query is registered for approval back on the event loop once the row has committed, and
+    * the notification is published off the loop again. A query that cannot be persisted is rejected rather than left hanging.
+    * The message is handed to HeldPayloadStore, which releases the connection's read buffers.
+     */
     public void addBlockedQuery(String connId,
                                 String queryType,
                                 String sql,
+                                int statementIndex,
+                                String statement,
                                 ByteBuf originalMessage,
+                                Channel clientChannel,
                                 Consumer<ByteBuf> forwardCallback,
                                 Consumer<String> rejectCallback) {
+        long dispatchedAt = System.nanoTime();
 
         // Generate nonce for replay protection
         String nonce = UUID.randomUUID().toString();
 
-        // Save to database
         BlockedQuery query = BlockedQuery.builder()
                 .connId(connId)
                 .queryType(QueryType.valueOf(queryType))
                 .queryPreview(sql.length() > 4000 ? sql.substring(0, 4000) : sql)
+                .blockedStatementIndex(statementIndex)
+                .blockedStatement(statement.length() > 4000 ? statement.substring(0, 4000) : statement)
                 .requiresPeerApproval(peerApprovalEnabled)
                 .nonce(nonce)
                 .build();
 
-        query = blockedQueryRepository.save(query);
+        // Store the payload and save to database off the event loop, completion comes back on it
+        CompletableFuture.supplyAsync(() -> {
+                    HeldPayload payload = heldPayloadStore.hold(connId, originalMessage);
+                    try {
+                        blockedQueryWriter.insert(query).join();
+                        return new Held(query, payload);
+                    } catch (RuntimeException e) {
+                        payload.release();
+                        throw e;
+                    }
+                }, holdExecutor)
+                .whenCompleteAsync((held, error) -> {
+                    metricsService.holdPersistLatency().recordNanos(System.nanoTime() - dispatchedAt);
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                        log.error("Failed to hold query from {}: {}", connId, cause.getMessage());
+                        metricsService.trackError();
+                        rejectCallback.accept(cause instanceof IllegalStateException
+                                ? cause.getMessage()
+                                : "Query could not be held for approval");
+                        return;
+                    }
+                    registerPending(held.query(), sql, held.payload(), clientChannel, forwardCallback, rejectCallback);
+                }, clientChannel.eventLoop());
+
+        metricsService.holdDispatchLatency().recordNanos(System.nanoTime() - dispatchedAt);
+    }
+
+    /*
+    * Runs on the client's event loop, so it is ordered with cleanupConnection: a client that
+    * disconnected while its query was being saved has already been cleaned up.
+     */
+    private void registerPending(BlockedQuery query,
+                                 String sql,
+                                 HeldPayload payload,
+                                 Channel clientChannel,
+                                 Consumer<ByteBuf> forwardCallback,
+                                 Consumer<String> rejectCallback) {
+        if (!clientChannel.isActive()) {
+            payload.release();
+            log.info("Blocked query #{} from {} dropped, client disconnected", query.getId(), query.getConnId());
+            return;
+        }
 
         // Store in memory for callbacks
         PendingQuery pending = new PendingQuery(
                 query.getId(),
-                connId,
-                originalMessage,
+                query.getConnId(),
+                query.isRequiresPeerApproval(),
+                payload,
                 forwardCallback,
                 rejectCallback,
-                ConcurrentHashMap.newKeySet(),
-                ConcurrentHashMap.newKeySet()
+                new ApprovalTally()
         );
-        pendingQueries.put(query.getId(), pending);
+        pendingQueries.put(pending);
+        pendingQueryReadModel.blocked(PendingQueryView.of(query));
+        pendingQueryExpiry.arm(query.getId(), this::expire);
 
         // Publish notification to Redis for real-time updates
-        publishBlockedNotification(query);
+        holdExecutor.execute(() -> publishBlockedNotification(query));
 
-        log.info("Blocked query #{} from {}: {}", query.getId(), connId, sql.substring(0, Math.min(50, sql.length())));
+        log.info("Blocked query #{} from {}: {}", query.getId(), query.getConnId(), sql.substring(0, Math.min(50, sql.length())));
     }
 
-    @Transactional
-    public boolean approveQuery(Long id, String approvedBy) {
+    private record Held(BlockedQuery query, HeldPayload payload) {}
+
+    /*
+    * Runs on the expiry timer thread. The query is settled by policy and its payload released
+    * right away; the database row is updated with the next expiry batch.
+     */
+    private void expire(long id) {
+        PendingQuery pending = pendingQueries.get(id);
+        boolean approve = pendingQueryExpiry.autoApproves();
+        if (pending == null || !pending.tally().resolve(approve ? Status.APPROVED : Status.EXPIRED)) {
+            return;
+        }
+        pendingQueries.remove(id, pending);
+        pendingQueryReadModel.resolved(id);
+
+        String action;
+        if (approve) {
+            ByteBuf message = pending.payload().take();
+            if (message != null) {
+                pending.forwardCallback().accept(message);
+            }
+            action = "APPROVED";
+        } else {
+            pending.payload().release();
+            pending.rejectCallback().accept("Query approval timed out");
+            action = "EXPIRED";
+        }
+        pendingQueryExpiry.expired(id);
+        holdExecutor.execute(() -> publishApprovalNotification(id, action, PendingQueryExpiry.RESOLVED_BY));
+
+        log.info("Query #{} expired ({})", id, action);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        holdExecutor.close();
+    }
+
+    public boolean approveQuery(Long id, String approvedBy, String ipAddress) {
         PendingQuery pending = pendingQueries.get(id);
         if (pending == null) {
             log.error("Approve failed: query #{} not found in pending", id);
             return false;
         }
 
-        BlockedQuery query = blockedQueryRepository.findById(id).orElse(null);
-        if (query == null || query.getStatus() != Status.PENDING) {
-            log.error("Approve failed: query #{} not in pending status", id);
+        // Claim the query, votes, admins and expiry may be resolving it concurrently
+        if (!pending.tally().resolve(Status.APPROVED)) {
+            log.error("Approve failed: query #{} already resolved", id);
             return false;
         }
-
-        // Update database
-        query.setStatus(Status.APPROVED);
-        query.setResolvedAt(Instant.now());
-        query.setResolvedBy(approvedBy);
-        blockedQueryRepository.save(query);
+        pendingQueries.remove(id, pending);
+        PendingQueryView view = pendingQueryReadModel.resolved(id);
+        pendingQueryExpiry.cancel(id);
 
         // Forward the original query to PostgreSQL
-        pending.forwardCallback().accept(pending.originalMessage());
-        pendingQueries.remove(id);
+        ByteBuf message = pending.payload().take();
+        if (message != null) {
+            pending.forwardCallback().accept(message);
+        }
+
+        // Update database; BlockedQueryWriter retries and reports a failed write
+        blockedQueryWriter.resolve(id, Status.APPROVED, Instant.now(), approvedBy);
 
         // Audit
         auditService.log(approvedBy, "query_approved",
-                String.format("Query $%d approved: %s", id, query.getQueryPreview()), null);
+                String.format("Query #%d approved: %s", id, queryPreview(view)), ipAddress);
 
         // Publish approval notification
-        publishApprovalNotification(query, "APPROVED", approvedBy);
+        publishApprovalNotification(id, "APPROVED", approvedBy);
 
         log.info("Query #{} approved by {}", id, approvedBy);
         return true;
     }
 
-    @Transactional
-    public boolean rejectQuery(Long id, String rejectedBy) {
+    public boolean rejectQuery(Long id, String rejectedBy, String ipAddress) {
         PendingQuery pending = pendingQueries.get(id);
         if (pending == null) {
             log.warn("Reject failed: query #{} not found in pending", id);
             return false;
         }
 
-        BlockedQuery query = blockedQueryRepository.findById(id).orElse(null);
-        if (query == null || query.getStatus() != Status.PENDING) {
-            log.warn("Reject failed: query #{} not in pending status", id);
+        // Claim the query, votes, admins and expiry may be resolving it concurrently
+        if (!pending.tally().resolve(Status.REJECTED)) {
+            log.warn("Reject failed: query #{} already resolved", id);
             return false;
         }
-
-        // Update database
-        query.setStatus(Status.REJECTED);
-        query.setResolvedAt(Instant.now());
-        query.setResolvedBy(rejectedBy);
-        blockedQueryRepository.save(query);
+        pendingQueries.remove(id, pending);
+        PendingQueryView view = pendingQueryReadModel.resolved(id);
+        pendingQueryExpiry.cancel(id);
 
         // Send error response to client
         pending.rejectCallback().accept("Query rejected by " + rejectedBy);
-        pending.originalMessage().release();
-        pendingQueries.remove(id);
+        pending.payload().release();
+
+        // Update database; BlockedQueryWriter retries and reports a failed write
+        blockedQueryWriter.resolve(id, Status.REJECTED, Instant.now(), rejectedBy);
 
         // Audit
         auditService.log(rejectedBy, "query_rejected",
-                String.format("Query #%d rejected: %s", id, query.getQueryPreview()), null);
+                String.format("Query #%d rejected: %s", id, queryPreview(view)), ipAddress);
 
         // Publish rejection notification
-        publishApprovalNotification(query, "REJECTED", rejectedBy);
+        publishApprovalNotification(id, "REJECTED", rejectedBy);
 
         log.info("Query #{} rejected by {}", id, rejectedBy);
         return true;
     }
 
-    @Transactional
+    private static String queryPreview(PendingQueryView view) {
+        return view != null ? view.queryPreview() : "";
+    }
+
+    /*
+    * The in-memory tally decides, the database only records: a vote is one upsert on
+    * query_approvals, and the vote that reaches the threshold resolves the query through
+    * approveQuery/rejectQuery, which let exactly one caller win. A vote on a query resolved
+    * meanwhile is refused, and one that cannot be stored is taken back and reported as failed.
+     */
     public Map<String, Object> addVote(Long id, String username, String vote) {
         PendingQuery pending = pendingQueries.get(id);
-        if (pending == null) {
+        if (pending == null || !pending.tally().isPending()) {
             log.warn("Vote failed: query #{} not found in pending", id);
             return Map.of("success", false, "duplicate", false, "error", "Query not found");
         }
 
-        BlockedQuery query = blockedQueryRepository.findById(id).orElse(null);
-        if (query == null || !query.isRequiresPeerApproval()) {
+        if (!pending.requiresPeerApproval()) {
             log.warn("Vote failed: query #{} does not require peer approval", id);
             return Map.of("success", false, "duplicate", false, "error", "Query does not require peer approval");
         }
@@ -169,80 +284,69 @@ public class BlockedQueryService {
             return Map.of("success", false, "duplicate", false, "error", "Invalid vote type");
         }
 
-        // Check if the user has already voted
-        QueryApproval existingApproval = query.getApprovals().stream()
-                .filter(a -> a.getUsername().equals(username))
-                .findFirst()
-                .orElse(null);
-
-        if (existingApproval != null) {
-            // User already voted
-            if (existingApproval.getVote() == voteEnum) {
-                log.info("User {} already voted {} on query #{}. Ignoring duplicate.", username, vote, id);
-                // Return success without DB write to save resources
-                return Map.of(
-                        "success", false,
-                        "duplicate", true,
-                        "error", "You have already voted on this query"
-                );
-            } else {
-                // User changed their vote
-                log.info("User {} changed vote from {} to {} on query #{}",
-                        username, existingApproval.getVote(), voteEnum, id);
-                existingApproval.setVote(voteEnum);
-                existingApproval.setVotedAt(Instant.now());
-            }
-        } else {
-            // New vote
-            QueryApproval approval = QueryApproval.builder()
-                .blockedQuery(query)
-                .username(username)
-                .vote(voteEnum)
-                .build();
-            query.getApprovals().add(approval);
+        ApprovalTally tally = pending.tally();
+        Vote previous;
+        try {
+            previous = tally.cast(username, voteEnum);
+        } catch (IllegalStateException e) {
+            log.warn("Vote failed: query #{} was resolved meanwhile", id);
+            return Map.of("success", false, "duplicate", false, "error", "Query already resolved");
         }
-
-        // Update In-Memory State (PendingQuery)
-        if (voteEnum == Vote.APPROVE) {
-            pending.approvals().add(username);
-            pending.rejections().remove(username);
-        } else {
-            pending.rejections().add(username);
-            pending.approvals().remove(username);
+        if (previous == voteEnum) {
+            log.info("User {} already voted {} on query #{}. Ignoring duplicate.", username, vote, id);
+            // Return without DB write to save resources
+            return Map.of(
+                    "success", false,
+                    "duplicate", true,
+                    "error", "You have already voted on this query"
+            );
+        }
+        if (previous != null) {
+            log.info("User {} changed vote from {} to {} on query #{}", username, previous, voteEnum, id);
         }
 
-        // Update counts
-        query.setApprovalCount(pending.approvals().size());
-        query.setRejectionCount(pending.rejections().size());
-
-        // Save changes
-        blockedQueryRepository.save(query);
+        // Persist the vote and move the stored counters by the same difference as the tally.
+        // A vote that cannot be stored is taken back, the tally must not count more than the table.
+        int approvalDelta = (voteEnum == Vote.APPROVE ? 1 : 0) - (previous == Vote.APPROVE ? 1 : 0);
+        int rejectionDelta = (voteEnum == Vote.REJECT ? 1 : 0) - (previous == Vote.REJECT ? 1 : 0);
+        try {
+            queryApprovalRepository.upsertVote(id, username, voteEnum.name(), approvalDelta, rejectionDelta);
+        } catch (Exception e) {
+            tally.revert(username, voteEnum, previous);
+            log.error("Failed to persist vote of {} on query #{}: {}", username, id, e.getMessage());
+            metricsService.trackError();
+            return Map.of("success", false, "duplicate", false, "error", "Vote could not be recorded");
+        }
+        pendingQueryReadModel.voted(id, tally);
 
         // Check threshold
-        if (pending.approvals().size() >= minVotes) {
-            approveQuery(id, "Peer Approval System");
+        int approvals = tally.approvals();
+        int rejections = tally.rejections();
+        if (approvals >= minVotes && approveQuery(id, "Peer Approval System", null)) {
             return Map.of("success", true, "duplicate", false, "autoResolved", true, "action", "approved");
         }
 
-        if (pending.rejections().size() >= minVotes) {
-            rejectQuery(id, "Peer Approval System");
+        if (rejections >= minVotes && rejectQuery(id, "Peer Approval System", null)) {
             return Map.of("success", true, "duplicate", false, "autoResolved", true, "action", "rejected");
         }
 
         // Publish vote notification
-        publishVoteNotification(id, username, vote, pending.approvals().size(), pending.rejections().size());
+        publishVoteNotification(id, username, vote, approvals, rejections);
 
         return Map.of(
                 "success", true,
                 "duplicate", false,
                 "autoResolved", false,
-                "approvalCount", pending.approvals().size(),
-                "rejectionCount", pending.rejections().size()
+                "approvalCount", approvals,
+                "rejectionCount", rejections
         );
     }
 
-    public List<BlockedQuery> getPendingQueries() {
-        return blockedQueryRepository.findByStatusOrderByCreatedAtAsc(Status.PENDING);
+    /*
+    * Served from memory, see PendingQueryReadModel.
+     */
+    public PendingQueryReadModel.Snapshot getPendingSnapshot() {
+        return pendingQueryReadModel.snapshot();
     }
 
     public List<BlockedQuery> getAllQueries() {
@@ -250,15 +354,17 @@ public class BlockedQueryService {
     }
 
     public void cleanupConnection(String connId) {
-        pendingQueries.entrySet().removeIf(entry -> {
-            if (entry.getValue().connId().equals(connId)) {
-                entry.getValue().originalMessage().release();
-                log.info("Cleaned up pending query #{} for disconnected connection {}",
-                        entry.getKey(), connId);
-                return true;
+        for (PendingQuery pending : pendingQueries.removeConnection(connId)) {
+            // Whoever resolved it concurrently settles the payload
+            if (!pending.tally().resolve(Status.EXPIRED)) {
+                continue;
             }
-            return false;
-        });
+            pendingQueryReadModel.resolved(pending.id());
+            pendingQueryExpiry.cancel(pending.id());
+            pending.payload().release();
+            log.info("Cleaned up pending query #{} for disconnected connection {}",
+                    pending.id(), connId);
+        }
     }
 
     public Map<String, Object> getVoteStatus(Long id) {
@@ -266,12 +372,13 @@ public class BlockedQueryService {
         if (pending == null) {
             return null;
         }
+        ApprovalTally tally = pending.tally();
         return Map.of(
                 "id", id,
-                "approvals", new ArrayList<>(pending.approvals()),
-                "rejections", new ArrayList<>(pending.rejections()),
-                "approvalCount", pending.approvals().size(),
-                "rejectionCount", pending.rejections().size()
+                "approvals", tally.voters(Vote.APPROVE),
+                "rejections", tally.voters(Vote.REJECT),
+                "approvalCount", tally.approvals(),
+                "rejectionCount", tally.rejections()
         );
     }
 
@@ -291,11 +398,11 @@ public class BlockedQueryService {
         }
     }
 
-    private void publishApprovalNotification(BlockedQuery query, String action, String resolveBy) {
+    private void publishApprovalNotification(Long queryId, String action, String resolveBy) {
         try {
             redisTemplate.convertAndSend("interceptor:approvals", Map.of(
                     "type", action,
-                    "queryId", query.getId(),
+                    "queryId", queryId,
                     "resolvedBy", resolveBy,
                     "timestamp", Instant.now().toString()
             ));
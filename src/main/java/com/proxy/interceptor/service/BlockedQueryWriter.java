@@ -0,0 +1,234 @@
+package com.proxy.interceptor.service;
+
+import com.proxy.interceptor.model.BlockedQuery;
+import com.proxy.interceptor.model.Status;
+import com.proxy.interceptor.repository.BlockedQueryRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+* Write-behind stage for blocked_queries.
+*
+* Inserts of held queries and their resolutions are queued and written by a single thread, one
+* transaction per batch: whatever queued up while the previous batch was being written goes
+* into the next one. Ids come from a pooled sequence, so Hibernate batches the inserts and only
+* goes to the sequence once per allocation block; status updates are one JDBC batch.
+*
+* Every write returns a future completed once its batch has committed. The queue is bounded:
+* an insert that does not fit fails right away, so the query is rejected instead of held
+* without a row.
+*
+* A failed batch is written again one write per transaction, so one bad write does not fail
+* the others with it. A resolution that still fails is retried with backoff: the query has
+* already been forwarded or rejected, and its row must not stay PENDING. Until it is written,
+* isResolving keeps the orphan sweep from expiring the row; one that fails every attempt is
+* logged with the status it should have and counted.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BlockedQueryWriter {
+
+    private static final int RESOLVE_ATTEMPTS = 5;
+    private static final long RETRY_BACKOFF_MILLIS = 100;
+
+    private static final String RESOLVE_SQL = "UPDATE blocked_queries SET status = ?, resolved_at = ?, resolved_by = ? " +
+            "WHERE id = ? AND status = 'PENDING'";
+
+    private final BlockedQueryRepository blockedQueryRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final MetricsService metricsService;
+
+    @Value("${approval.write-behind.queue-capacity}")
+    private int queueCapacity;
+
+    @Value("${approval.write-behind.batch-size}")
+    private int batchSize;
+
+    private BlockingQueue<Write> queue;
+    // Rows with a resolution queued or not written, see isResolving
+    private final Set<Long> resolving = ConcurrentHashMap.newKeySet();
+    private Thread writer;
+    private volatile boolean stopped;
+
+    private sealed interface Write permits Insert, Resolve {
+        CompletableFuture<Void> done();
+    }
+
+    private record Insert(BlockedQuery query, CompletableFuture<Void> done) implements Write {}
+
+    private record Resolve(long id, Status status, Instant resolvedAt, String resolvedBy,
+                           CompletableFuture<Void> done) implements Write {}
+
+    @PostConstruct
+    void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        writer = Thread.ofPlatform().name("blocked-query-writer").daemon().start(this::run);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        stopped = true;
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /*
+    * Queue the insert of a held query. The future completes once the row is committed, with
+    * the query's id assigned.
+     */
+    public CompletableFuture<Void> insert(BlockedQuery query) {
+        Insert insert = new Insert(query, new CompletableFuture<>());
+        if (stopped || !queue.offer(insert)) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Too many queries waiting to be held"));
+        }
+        return insert.done();
+    }
+
+    /*
+    * Queue the resolution of a pending row. Waits for room in the queue rather than losing it.
+     */
+    public CompletableFuture<Void> resolve(long id, Status status, Instant resolvedAt, String resolvedBy) {
+        Resolve resolve = new Resolve(id, status, resolvedAt, resolvedBy, new CompletableFuture<>());
+        resolving.add(id);
+        try {
+            queue.put(resolve);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Resolution of query #{} as {} by {} not written: interrupted", id, status, resolvedBy);
+            metricsService.trackWriteBehindFailed();
+            return CompletableFuture.failedFuture(e);
+        }
+        return resolve.done();
+    }
+
+    /*
+    * Whether the row was resolved in memory but the resolution is not in the database yet, or
+    * could not be written at all. Its PENDING status is not a sign of an orphan then.
+     */
+    public boolean isResolving(long id) {
+        return resolving.contains(id);
+    }
+
+    private void run() {
+        List<Write> batch = new ArrayList<>(batchSize);
+        while (!stopped || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                stopped = true;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Write> batch) {
+        List<BlockedQuery> inserts = new ArrayList<>();
+        List<Object[]> updates = new ArrayList<>();
+        for (Write write : batch) {
+            switch (write) {
+                case Insert insert -> inserts.add(insert.query());
+                case Resolve resolve -> updates.add(new Object[] {
+                        resolve.status().name(), Timestamp.from(resolve.resolvedAt()), resolve.resolvedBy(), resolve.id()
+                });
+            }
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(tx -> {
+                // Flushed first: a resolution is only queued once its insert has committed,
+                // but the statements should still reach the database in queue order
+                if (!inserts.isEmpty()) {
+                    blockedQueryRepository.saveAllAndFlush(inserts);
+                }
+                if (!updates.isEmpty()) {
+                    jdbcTemplate.batchUpdate(RESOLVE_SQL, updates);
+                }
+            });
+        } catch (Exception e) {
+            log.error("Failed to write {} blocked query changes, writing them one by one: {}", batch.size(), e.getMessage());
+            metricsService.trackError();
+            batch.forEach(this::writeOne);
+            return;
+        }
+
+        metricsService.trackWriteBehindBatch(batch.size());
+        for (Write write : batch) {
+            if (write instanceof Resolve resolve) {
+                resolving.remove(resolve.id());
+            }
+            write.done().complete(null);
+        }
+    }
+
+    private void writeOne(Write write) {
+        switch (write) {
+            case Insert insert -> {
+                // The failed batch already assigned an id, the rolled back one
+                insert.query().setId(null);
+                try {
+                    transactionTemplate.executeWithoutResult(tx -> blockedQueryRepository.saveAndFlush(insert.query()));
+                } catch (Exception e) {
+                    log.error("Failed to insert blocked query from {}: {}", insert.query().getConnId(), e.getMessage());
+                    metricsService.trackWriteBehindFailed();
+                    insert.done().completeExceptionally(e);
+                    return;
+                }
+                metricsService.trackWriteBehindBatch(1);
+                insert.done().complete(null);
+            }
+            case Resolve resolve -> {
+                long backoff = RETRY_BACKOFF_MILLIS;
+                for (int attempt = 1; ; attempt++) {
+                    try {
+                        jdbcTemplate.update(RESOLVE_SQL, resolve.status().name(), Timestamp.from(resolve.resolvedAt()),
+                                resolve.resolvedBy(), resolve.id());
+                        break;
+                    } catch (Exception e) {
+                        if (attempt >= RESOLVE_ATTEMPTS) {
+                            // Stays in resolving: the row is not a PENDING orphan for the sweep to expire
+                            log.error("Failed to record query #{} as {} by {} at {} in {} attempts, its row stays PENDING: {}",
+                                    resolve.id(), resolve.status(), resolve.resolvedBy(), resolve.resolvedAt(),
+                                    attempt, e.getMessage());
+                            metricsService.trackWriteBehindFailed();
+                            resolve.done().completeExceptionally(e);
+                            return;
+                        }
+                        log.warn("Failed to record query #{} as {}, retrying in {} ms: {}",
+                                resolve.id(), resolve.status(), backoff, e.getMessage());
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoff));
+                        backoff *= 2;
+                    }
+                }
+                resolving.remove(resolve.id());
+                metricsService.trackWriteBehindBatch(1);
+                resolve.done().complete(null);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.proxy.interceptor.service;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.MappedByteBuffer;
+
+/*
+* The wire bytes of a query held for approval, either compacted into a buffer of exactly their
+* size or spilled to a memory-mapped file (see HeldPayloadStore).
+*
+* A payload is settled exactly once: take() hands the bytes over for forwarding, release()
+* discards them. Either may race with the other (approval vs. disconnect), the loser is a no-op.
+ */
+public final class HeldPayload {
+
+    private final HeldPayloadStore store;
+    private final String connId;
+    private final int length;
+    private final boolean spilled;
+    private ByteBuf memory;
+    private MappedByteBuffer mapped;
+    private boolean settled;
+
+    HeldPayload(HeldPayloadStore store, String connId, ByteBuf memory) {
+        this.store = store;
+        this.connId = connId;
+        this.length = memory.readableBytes();
+        this.spilled = false;
+        this.memory = memory;
+    }
+
+    HeldPayload(HeldPayloadStore store, String connId, MappedByteBuffer mapped) {
+        this.store = store;
+        this.connId = connId;
+        this.length = mapped.remaining();
+        this.spilled = true;
+        this.mapped = mapped;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean isSpilled() {
+        return spilled;
+    }
+
+    /*
+    * The payload as a buffer owned by the caller, or null if it was already settled.
+    * A spilled payload is wrapped, not copied; its pages are read straight from the mapping
+    * when the buffer is written to the socket.
+     */
+    public ByteBuf take() {
+        synchronized (this) {
+            if (settled) {
+                return null;
+            }
+            settled = true;
+        }
+        ByteBuf buf = spilled ? Unpooled.wrappedBuffer(mapped) : memory;
+        settle();
+        return buf;
+    }
+
+    public void release() {
+        synchronized (this) {
+            if (settled) {
+                return;
+            }
+            settled = true;
+        }
+        if (memory != null) {
+            memory.release();
+        }
+        settle();
+    }
+
+    // The mapping itself is unmapped once unreachable, its file is already unlinked
+    private void settle() {
+        store.settled(connId, length, spilled);
+        memory = null;
+        mapped = null;
+    }
+}
@@ -0,0 +1,131 @@
+package com.proxy.interceptor.service;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+* Storage for the payloads of held queries, which can wait for approval for hours.
+*
+* A held message arrives as a slice or composite of the connection's read buffers; keeping it
+* would pin those pooled chunks. Instead its frame bytes are copied out and the original is
+* released. Small payloads are kept in an exactly sized buffer while the total stays within the
+* memory budget; larger ones, and everything over the budget, go to a memory-mapped spill file
+* the OS can page out. Each connection may hold a bounded number of bytes in total.
+*
+* Spill files are unlinked as soon as they are mapped: nothing is left behind on a crash and the
+* space is reclaimed when the mapping is dropped.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class HeldPayloadStore {
+
+    private final MetricsService metricsService;
+
+    @Value("${proxy.held-payloads.memory-budget}")
+    private long memoryBudget;
+
+    @Value("${proxy.held-payloads.connection-budget}")
+    private long connectionBudget;
+
+    @Value("${proxy.held-payloads.spill-threshold}")
+    private int spillThreshold;
+
+    @Value("${proxy.held-payloads.spill-dir}")
+    private Path spillDir;
+
+    private final AtomicLong memoryBytes = new AtomicLong();
+    private final ConcurrentHashMap<String, AtomicLong> connectionBytes = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void createSpillDir() throws IOException {
+        Files.createDirectories(spillDir);
+    }
+
+    /*
+    * Take over a held message. The message is always released, also when this throws: an
+    * IllegalStateException when the connection is over its budget, an UncheckedIOException
+    * when spilling fails. Does file I/O, never call it on an event loop.
+     */
+    public HeldPayload hold(String connId, ByteBuf message) {
+        try {
+            int length = message.readableBytes();
+            long held = connectionBytes.compute(connId, (k, bytes) -> {
+                AtomicLong total = bytes != null ? bytes : new AtomicLong();
+                total.addAndGet(length);
+                return total;
+            }).get();
+            if (held > connectionBudget) {
+                settleConnection(connId, length);
+                throw new IllegalStateException("Too much data held for approval on this connection");
+            }
+
+            if (length <= spillThreshold && memoryBytes.addAndGet(length) <= memoryBudget) {
+                ByteBuf compact = Unpooled.directBuffer(length, length);
+                compact.writeBytes(message, message.readerIndex(), length);
+                metricsService.trackHeldPayload(length, 0);
+                return new HeldPayload(this, connId, compact);
+            }
+            if (length <= spillThreshold) {
+                memoryBytes.addAndGet(-length); // Over the memory budget
+            }
+
+            try {
+                HeldPayload payload = new HeldPayload(this, connId, spill(message, length));
+                metricsService.trackHeldPayload(0, length);
+                log.debug("Spilled {} held bytes for {}", length, connId);
+                return payload;
+            } catch (IOException e) {
+                settleConnection(connId, length);
+                throw new UncheckedIOException("Failed to spill held query", e);
+            }
+        } finally {
+            message.release();
+        }
+    }
+
+    private MappedByteBuffer spill(ByteBuf message, int length) throws IOException {
+        Path file = Files.createTempFile(spillDir, "held-", ".spill");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            message.getBytes(message.readerIndex(), mapped.duplicate());
+            return mapped;
+        } finally {
+            try {
+                Files.delete(file);
+            } catch (IOException e) {
+                // Mapped files cannot be deleted on every platform
+                file.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    void settled(String connId, int length, boolean spilled) {
+        if (spilled) {
+            metricsService.trackHeldPayload(0, -length);
+        } else {
+            memoryBytes.addAndGet(-length);
+            metricsService.trackHeldPayload(-length, 0);
+        }
+        settleConnection(connId, length);
+    }
+
+    private void settleConnection(String connId, int length) {
+        connectionBytes.computeIfPresent(connId, (k, held) -> held.addAndGet(-length) == 0 ? null : held);
+    }
+}
@@ -0,0 +1,194 @@
+package com.proxy.interceptor.service;
+
+import com.proxy.interceptor.dto.JournalRecord;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/*
+* Iterates the journal records with a timestamp in [from, to], oldest first, mapping one
+* segment at a time.
+*
+* Timestamps never decrease across segments, so a segment is skipped when the next one already
+* starts before from, and the scan ends at the first segment or record past to. Within the
+* first segment the sparse index gives the last position known to be before from.
+*
+* Safe to run while the journal is being written: a record is only read once its length is
+* set, and one whose checksum does not match is treated as the end of the segment.
+ */
+public final class JournalReader implements Iterator<JournalRecord> {
+
+    private final List<Path> segments;
+    private final long from;
+    private final long to;
+    private final CRC32C crc = new CRC32C();
+
+    private int segment = -1;
+    private long[] nextIndex; // index of segments[segment + 1], read ahead
+    private ByteBuffer buffer;
+    private JournalRecord next;
+    private boolean done;
+
+    public JournalReader(Path dir, Instant from, Instant to) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            this.segments = files
+                    .filter(p -> p.getFileName().toString().endsWith(JournalSegment.SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+        this.from = from.toEpochMilli();
+        this.to = to.toEpochMilli();
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && !done) {
+            if (buffer == null && !openNext()) {
+                done = true;
+            } else if (buffer != null) {
+                next = read();
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public JournalRecord next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        JournalRecord record = next;
+        next = null;
+        return record;
+    }
+
+    /*
+    * Map the next segment that can hold records in range. Returns false once none can.
+     */
+    private boolean openNext() {
+        while (++segment < segments.size()) {
+            long[] index = nextIndex != null ? nextIndex : index(segments.get(segment));
+            nextIndex = segment + 1 < segments.size() ? index(segments.get(segment + 1)) : null;
+            if (index.length == 0) {
+                continue;
+            }
+            if (timestamp(index, 0) > to) {
+                return false;
+            }
+            if (nextIndex != null && nextIndex.length > 0 && timestamp(nextIndex, 0) < from) {
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(segments.get(segment))) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (NoSuchFileException e) {
+                continue; // Deleted by rotation since the listing
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.position(seek(index));
+            return true;
+        }
+        return false;
+    }
+
+    // Position of the last index entry before from; every record ahead of it is older
+    private int seek(long[] index) {
+        int position = 0;
+        for (int i = 0; i < index.length && timestamp(index, i) < from; i++) {
+            position = (int) index[i * 2 + 1];
+        }
+        return position;
+    }
+
+    /*
+    * The next record in range from the current segment, or null if there is none: the
+    * segment is released when its written part ends, the whole scan once a record is past to.
+     */
+    private JournalRecord read() {
+        while (true) {
+            int position = buffer.position();
+            if (buffer.remaining() < JournalSegment.HEADER) {
+                buffer = null;
+                return null;
+            }
+            int length = buffer.getInt(position);
+            if (length < JournalSegment.HEADER || length > buffer.remaining()) {
+                buffer = null;
+                return null;
+            }
+            crc.reset();
+            crc.update(buffer.slice(position + JournalSegment.HEADER, length - JournalSegment.HEADER));
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                buffer = null;
+                return null;
+            }
+
+            buffer.position(position + JournalSegment.HEADER);
+            long timestamp = buffer.getLong();
+            if (timestamp > to) {
+                buffer = null;
+                done = true;
+                return null;
+            }
+            if (timestamp < from) {
+                buffer.position(position + length);
+                continue;
+            }
+            long fingerprint = buffer.getLong();
+            long latencyNanos = buffer.getLong();
+            String classification = getString();
+            String connId = getString();
+            String user = getString();
+            byte[] sql = new byte[buffer.getInt()];
+            buffer.get(sql);
+            buffer.position(position + length);
+            return new JournalRecord(Instant.ofEpochMilli(timestamp), connId, user, fingerprint,
+                    classification, latencyNanos, new String(sql, StandardCharsets.UTF_8));
+        }
+    }
+
+    private String getString() {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // (timestamp, position) pairs; a partly written last entry is ignored
+    private static long[] index(Path segment) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(JournalSegment.indexPath(segment));
+        } catch (NoSuchFileException e) {
+            return new long[0];
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long[] index = new long[bytes.length / JournalSegment.INDEX_ENTRY * 2];
+        for (int i = 0; i < index.length; i += 2) {
+            index[i] = buffer.getLong();
+            index[i + 1] = buffer.getInt();
+        }
+        return index;
+    }
+
+    private static long timestamp(long[] index, int entry) {
+        return index[entry * 2];
+    }
+}
@@ -0,0 +1,155 @@
+package com.proxy.interceptor.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/*
+* One segment file of the query journal, written through a memory mapping, with its sparse
+* time index.
+*
+* A segment is a fixed-size file of back-to-back records:
+*
+*   int    record length, header included; 0 where the written part ends
+*   int    CRC32C of the rest of the record
+*   long   timestamp, epoch millis
+*   long   fingerprint
+*   long   latency in nanos, -1 for statements held for approval
+*   short  classification, connId and user lengths (-1 for null), each followed by its bytes
+*   int    SQL length, followed by the SQL bytes
+*
+* The length is written last, so a reader sees either a whole record or the end of the
+* written part. Timestamps never decrease within a journal. Every index-interval bytes the
+* timestamp and position of the record there are appended to the segment's .idx file, which
+* lets a scan start near the first record of its range.
+*
+* Writer thread only; see JournalReader for reading.
+ */
+public final class JournalSegment implements Closeable {
+
+    static final String SUFFIX = ".seg";
+    static final String INDEX_SUFFIX = ".idx";
+    static final int HEADER = 8;
+    static final int INDEX_ENTRY = 12;
+
+    private static final int FIXED = HEADER + 3 * Long.BYTES + 3 * Short.BYTES + Integer.BYTES;
+
+    private final FileChannel channel;
+    private final FileChannel index;
+    private final MappedByteBuffer buffer;
+    private final int indexInterval;
+    private final CRC32C crc = new CRC32C();
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY);
+    private int position;
+    private int nextIndexAt;
+
+    private JournalSegment(FileChannel channel, FileChannel index, MappedByteBuffer buffer, int indexInterval) {
+        this.channel = channel;
+        this.index = index;
+        this.buffer = buffer;
+        this.indexInterval = indexInterval;
+    }
+
+    public static JournalSegment create(Path dir, long sequence, int size, int indexInterval) throws IOException {
+        Path path = path(dir, sequence);
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileChannel index = FileChannel.open(indexPath(path),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            // Mapping past the end grows the file, zero-filled
+            return new JournalSegment(channel, index, channel.map(FileChannel.MapMode.READ_WRITE, 0, size), indexInterval);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static Path path(Path dir, long sequence) {
+        return dir.resolve(String.format("%020d%s", sequence, SUFFIX));
+    }
+
+    static Path indexPath(Path segment) {
+        String name = segment.getFileName().toString();
+        return segment.resolveSibling(name.substring(0, name.length() - SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    static long sequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    /*
+    * Append a record. Returns false if it does not fit in the rest of the segment.
+     */
+    public boolean append(long timestamp, String connId, String user, long fingerprint,
+                          String classification, long latencyNanos, byte[] sql) throws IOException {
+        byte[] classificationBytes = bytes(classification);
+        byte[] connIdBytes = bytes(connId);
+        byte[] userBytes = bytes(user);
+        int length = FIXED + size(classificationBytes) + size(connIdBytes) + size(userBytes) + sql.length;
+        if (length > buffer.capacity() - position) {
+            return false;
+        }
+
+        int body = position + HEADER;
+        buffer.position(body);
+        buffer.putLong(timestamp).putLong(fingerprint).putLong(latencyNanos);
+        putString(classificationBytes);
+        putString(connIdBytes);
+        putString(userBytes);
+        buffer.putInt(sql.length).put(sql);
+
+        crc.reset();
+        crc.update(buffer.slice(body, length - HEADER));
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.putInt(position, length);
+
+        if (position >= nextIndexAt) {
+            indexEntry.clear();
+            indexEntry.putLong(timestamp).putInt(position).flip();
+            index.write(indexEntry);
+            nextIndexAt = position + indexInterval;
+        }
+        position += length;
+        return true;
+    }
+
+    public int position() {
+        return position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (channel; index) {
+            buffer.force();
+        }
+    }
+
+    private void putString(byte[] bytes) {
+        if (bytes == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return bytes.length > Short.MAX_VALUE ? Arrays.copyOf(bytes, Short.MAX_VALUE) : bytes;
+    }
+
+    private static int size(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+}
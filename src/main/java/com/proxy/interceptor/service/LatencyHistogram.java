@@ -0,0 +1,106 @@
+package com.proxy.interceptor.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+* Lock-free log-linear latency histogram in microseconds, HdrHistogram style.
+*
+* Values below 64us get a bucket each; above that every power of two is split into 32 linear
+* sub-buckets, so any recorded value is reported within ~3%. Values above ~71 minutes are
+* clamped. Recording is one atomic increment plus a CAS on the max when it grows; readers take
+* a racy but consistent-enough snapshot of the counters.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;       // 32
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;            // 64
+    private static final long MAX_VALUE = (1L << 32) - 1;
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        long micros = Math.min(Math.max(nanos / 1000, 0), MAX_VALUE);
+        counts.incrementAndGet(index(micros));
+        totalMicros.addAndGet(micros);
+
+        long current = max.get();
+        while (micros > current && !max.compareAndSet(current, micros)) {
+            current = max.get();
+        }
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long totalMicros() {
+        return totalMicros.get();
+    }
+
+    /*
+    * count, mean, p50, p95, p99 and max in microseconds.
+     */
+    public Map<String, Long> summary() {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+
+        Map<String, Long> summary = new LinkedHashMap<>();
+        summary.put("count", count);
+        summary.put("meanMicros", count == 0 ? 0 : totalMicros.get() / count);
+        summary.put("p50Micros", percentile(snapshot, count, 0.50));
+        summary.put("p95Micros", percentile(snapshot, count, 0.95));
+        summary.put("p99Micros", percentile(snapshot, count, 0.99));
+        summary.put("maxMicros", max.get());
+        return summary;
+    }
+
+    private static long percentile(long[] snapshot, long count, double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return valueOf(i);
+            }
+        }
+        return valueOf(snapshot.length - 1);
+    }
+
+    private static int index(long micros) {
+        if (micros < LINEAR_LIMIT) {
+            return (int) micros;
+        }
+        // Keep the top SUB_BUCKET_BITS + 1 bits: the leading one selects the power of two,
+        // the rest the linear sub-bucket within it
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) ((micros >>> shift) - SUB_BUCKETS);
+    }
+
+    // Midpoint of the bucket
+    private static long valueOf(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long lower = (long) (SUB_BUCKETS + (index - LINEAR_LIMIT) % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) / 2;
+    }
+}
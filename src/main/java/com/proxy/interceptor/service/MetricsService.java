@@ -1,12 +1,17 @@
 package com.proxy.interceptor.service;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 @Service
 @Slf4j
@@ -20,8 +25,59 @@ public class MetricsService {
     private final AtomicLong rejectedQueries = new AtomicLong(0);
     private final AtomicLong errors = new AtomicLong(0);
 
+    private final AtomicLong classificationCacheHits = new AtomicLong(0);
+    private final AtomicLong classificationCacheMisses = new AtomicLong(0);
+    private final AtomicLong classificationCacheEvictions = new AtomicLong(0);
+
+    // Keyed by the slow leg ("client" or "server") whose full write buffer paused reads on the other leg
+    private final ConcurrentHashMap<String, AtomicLong> backpressureEvents = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> backpressureNanos = new ConcurrentHashMap<>();
+
+    // Flushes per leg ("client" or "server"); updated from every event loop, hence LongAdder
+    private final LongAdder clientFlushes = new LongAdder();
+    private final LongAdder serverFlushes = new LongAdder();
+
+    private final AtomicLong warmPoolHits = new AtomicLong(0);
+    private final AtomicLong warmPoolMisses = new AtomicLong(0);
+
+    // Bytes retained by queries held for approval, in memory and in spill files
+    private final AtomicLong heldMemoryBytes = new AtomicLong(0);
+    private final AtomicLong heldSpilledBytes = new AtomicLong(0);
+    private final AtomicLong heldPayloads = new AtomicLong(0);
+    private final AtomicLong heldSpills = new AtomicLong(0);
+
+    // Batches committed by the blocked_queries write-behind stage, and the writes they carried
+    private final AtomicLong writeBehindBatches = new AtomicLong(0);
+    private final AtomicLong writeBehindWrites = new AtomicLong(0);
+    private final AtomicLong writeBehindFailed = new AtomicLong(0);
+
+    // Audit pipeline: events written and dropped, and the ring depth seen by the writer
+    private final AtomicLong auditWritten = new AtomicLong(0);
+    private final AtomicLong auditBatches = new AtomicLong(0);
+    private final AtomicLong auditDropped = new AtomicLong(0);
+    private final AtomicLong auditQueueDepth = new AtomicLong(0);
+    private final AtomicLong auditQueueHighWater = new AtomicLong(0);
+    private final AtomicLong auditDefaultPartitionRows = new AtomicLong(0);
+
+    // Query journal: records appended, and dropped because the writer fell behind
+    private final AtomicLong journalAppended = new AtomicLong(0);
+    private final AtomicLong journalDropped = new AtomicLong(0);
+
     private final ConcurrentHashMap<String, AtomicLong> queryTypeCount = new ConcurrentHashMap<>();
 
+    // Latency from client receipt to the backend's ReadyForQuery, per query type and per fingerprint
+    @Value("${proxy.latency.max-fingerprints}")
+    private int maxFingerprints;
+
+    private final ConcurrentHashMap<String, LatencyHistogram> queryTypeLatency = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, QueryLatency> queryLatency = new ConcurrentHashMap<>();
+
+    private record QueryLatency(String query, LatencyHistogram histogram) {}
+
+    // Holding a query: time it occupies the event loop, and until it is persisted and awaiting approval
+    private final LatencyHistogram holdDispatchLatency = new LatencyHistogram();
+    private final LatencyHistogram holdPersistLatency = new LatencyHistogram();
+
     public void trackConnection() {
         totalConnections.incrementAndGet();
         activeConnections.incrementAndGet();
@@ -52,19 +108,211 @@ public class MetricsService {
         errors.incrementAndGet();
     }
 
-    public Map<String, Object> getMetrics() {
+    public void trackClassificationCacheHit() {
+        classificationCacheHits.incrementAndGet();
+    }
+
+    public void trackClassificationCacheMiss() {
+        classificationCacheMisses.incrementAndGet();
+    }
+
+    public void trackClassificationCacheEviction() {
+        classificationCacheEvictions.incrementAndGet();
+    }
+
+    public void trackBackpressure(String leg, long nanos) {
+        backpressureEvents.computeIfAbsent(leg, k -> new AtomicLong(0)).incrementAndGet();
+        backpressureNanos.computeIfAbsent(leg, k -> new AtomicLong(0)).addAndGet(nanos);
+    }
+
+    public void trackFlush(String leg) {
+        ("client".equals(leg) ? clientFlushes : serverFlushes).increment();
+    }
+
+    public void trackWarmPoolHit() {
+        warmPoolHits.incrementAndGet();
+    }
+
+    public void trackWarmPoolMiss() {
+        warmPoolMisses.incrementAndGet();
+    }
+
+    /*
+    * A held payload was stored (positive deltas) or settled (negative deltas).
+     */
+    public void trackHeldPayload(long memoryDelta, long spilledDelta) {
+        heldMemoryBytes.addAndGet(memoryDelta);
+        heldSpilledBytes.addAndGet(spilledDelta);
+        long delta = memoryDelta + spilledDelta;
+        heldPayloads.addAndGet(Long.signum(delta));
+        if (spilledDelta > 0) {
+            heldSpills.incrementAndGet();
+        }
+    }
+
+    public void trackWriteBehindBatch(int writes) {
+        writeBehindBatches.incrementAndGet();
+        writeBehindWrites.addAndGet(writes);
+    }
+
+    // A blocked query write that failed on its own, after the batch it was in failed
+    public void trackWriteBehindFailed() {
+        writeBehindFailed.incrementAndGet();
+    }
+
+    /*
+    * The audit writer wrote a batch; depth is how many events were queued when it started.
+     */
+    public void trackAuditBatch(int written, long depth) {
+        auditWritten.addAndGet(written);
+        auditBatches.incrementAndGet();
+        auditQueueDepth.set(depth);
+        auditQueueHighWater.accumulateAndGet(depth, Math::max);
+    }
+
+    public void trackAuditDropped() {
+        auditDropped.incrementAndGet();
+    }
+
+    /*
+    * Rows the audit_logs default partition held at the last partition maintenance; should be 0.
+     */
+    public void trackAuditDefaultPartitionRows(long rows) {
+        auditDefaultPartitionRows.set(rows);
+    }
+
+    public void trackJournalAppended(int records) {
+        journalAppended.addAndGet(records);
+    }
+
+    public void trackJournalDropped() {
+        journalDropped.incrementAndGet();
+    }
+
+    public LatencyHistogram queryTypeLatency(String type) {
+        return queryTypeLatency.computeIfAbsent(type, k -> new LatencyHistogram());
+    }
+
+    /*
+    * Histogram of a query fingerprint, or null if it is not tracked (yet).
+     */
+    public LatencyHistogram queryLatency(long fingerprint) {
+        QueryLatency latency = queryLatency.get(fingerprint);
+        return latency != null ? latency.histogram() : null;
+    }
+
+    // The number of tracked fingerprints is bounded, the first ones seen are kept
+    public boolean canTrackQueryLatency() {
+        return queryLatency.size() < maxFingerprints;
+    }
+
+    public LatencyHistogram registerQueryLatency(long fingerprint, String sql) {
+        if (!canTrackQueryLatency()) {
+            return null;
+        }
+        String query = sql.length() > 200 ? sql.substring(0, 200) + "..." : sql;
+        return queryLatency.computeIfAbsent(fingerprint, k -> new QueryLatency(query, new LatencyHistogram())).histogram();
+    }
+
+    public LatencyHistogram holdDispatchLatency() {
+        return holdDispatchLatency;
+    }
+
+    public LatencyHistogram holdPersistLatency() {
+        return holdPersistLatency;
+    }
+
+    /*
+    * Latency percentiles per query type, and for the fingerprints with the most total time.
+     */
+    public Map<String, Object> getLatencyMetrics(int limit) {
+        Map<String, Object> byType = new LinkedHashMap<>();
+        queryTypeLatency.forEach((type, histogram) -> byType.put(type, histogram.summary()));
+
+        List<Map<String, Object>> byFingerprint = queryLatency.entrySet().stream()
+                .sorted(Comparator.comparingLong(
+                        (Map.Entry<Long, QueryLatency> e) -> e.getValue().histogram().totalMicros()).reversed())
+                .limit(limit)
+                .map(e -> {
+                    Map<String, Object> entry = new LinkedHashMap<>();
+                    entry.put("fingerprint", Long.toHexString(e.getKey()));
+                    entry.put("query", e.getValue().query());
+                    entry.put("totalMicros", e.getValue().histogram().totalMicros());
+                    entry.putAll(e.getValue().histogram().summary());
+                    return entry;
+                })
+                .toList();
+
         return Map.of(
-                "totalConnections", totalConnections.get(),
-                "activeConnections", activeConnections.get(),
-                "totalQueries", totalQueries.get(),
-                "blockedQueries", blockedQueries.get(),
-                "approvedQueries", approvedQueries.get(),
-                "rejectedQueries", rejectedQueries.get(),
-                "errors", errors.get(),
-                "queryTypes", new ConcurrentHashMap<>(queryTypeCount)
+                "byType", byType,
+                "byFingerprint", byFingerprint,
+                "trackedFingerprints", queryLatency.size(),
+                "hold", Map.of(
+                        "dispatch", holdDispatchLatency.summary(),
+                        "persist", holdPersistLatency.summary()
+                )
         );
     }
 
+    public Map<String, Object> getMetrics() {
+        return Map.ofEntries(
+                Map.entry("totalConnections", totalConnections.get()),
+                Map.entry("activeConnections", activeConnections.get()),
+                Map.entry("totalQueries", totalQueries.get()),
+                Map.entry("blockedQueries", blockedQueries.get()),
+                Map.entry("approvedQueries", approvedQueries.get()),
+                Map.entry("rejectedQueries", rejectedQueries.get()),
+                Map.entry("errors", errors.get()),
+                Map.entry("queryTypes", new ConcurrentHashMap<>(queryTypeCount)),
+                Map.entry("classificationCache", Map.of(
+                        "hits", classificationCacheHits.get(),
+                        "misses", classificationCacheMisses.get(),
+                        "evictions", classificationCacheEvictions.get()
+                )),
+                Map.entry("backpressure", Map.of(
+                        "events", new ConcurrentHashMap<>(backpressureEvents),
+                        "millis", backpressureMillis()
+                )),
+                Map.entry("flushes", Map.of(
+                        "client", clientFlushes.sum(),
+                        "server", serverFlushes.sum()
+                )),
+                Map.entry("warmPool", Map.of(
+                        "hits", warmPoolHits.get(),
+                        "misses", warmPoolMisses.get()
+                )),
+                Map.entry("heldPayloads", Map.of(
+                        "count", heldPayloads.get(),
+                        "memoryBytes", heldMemoryBytes.get(),
+                        "spilledBytes", heldSpilledBytes.get(),
+                        "spills", heldSpills.get()
+                )),
+                Map.entry("writeBehind", Map.of(
+                        "batches", writeBehindBatches.get(),
+                        "writes", writeBehindWrites.get(),
+                        "failed", writeBehindFailed.get()
+                )),
+                Map.entry("audit", Map.of(
+                        "written", auditWritten.get(),
+                        "batches", auditBatches.get(),
+                        "dropped", auditDropped.get(),
+                        "queueDepth", auditQueueDepth.get(),
+                        "queueHighWater", auditQueueHighWater.get(),
+                        "defaultPartitionRows", auditDefaultPartitionRows.get()
+                )),
+                Map.entry("journal", Map.of(
+                        "appended", journalAppended.get(),
+                        "dropped", journalDropped.get()
+                ))
+        );
+    }
+
+    private Map<String, Long> backpressureMillis() {
+        Map<String, Long> millis = new ConcurrentHashMap<>();
+        backpressureNanos.forEach((leg, nanos) -> millis.put(leg, nanos.get() / 1_000_000));
+        return millis;
+    }
+
     @Scheduled(fixedRate = 60000) // Log metrics every minute
     public void logMetrics() {
         log.info("Metrics: connections={}/{}, queries={}, blocked={}, approved={}, rejected={}",
@@ -0,0 +1,163 @@
+package com.proxy.interceptor.service;
+
+import com.proxy.interceptor.model.BlockedQuery;
+import com.proxy.interceptor.model.Status;
+import com.proxy.interceptor.repository.BlockedQueryRepository;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+
+/*
+* Expiry of queries held for approval.
+*
+* Every pending query is armed on a hashed wheel timer keyed by its id: arming and cancelling
+* are O(1) no matter how many queries are pending, and the timer thread only ever touches the
+* buckets that are due. When a query's TTL elapses it is resolved by policy (see
+* BlockedQueryService); the database rows of expired queries are updated in batches, one
+* statement per batch interval instead of one per query.
+*
+* A periodic sweep also expires rows that were left PENDING without an in-memory query: the
+* client disconnected, or the proxy restarted while they were held. Rows whose resolution
+* BlockedQueryWriter has not written yet are not orphans and are left alone.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PendingQueryExpiry {
+
+    public static final String RESOLVED_BY = "Expiry Policy";
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final BlockedQueryRepository blockedQueryRepository;
+    private final BlockedQueryWriter blockedQueryWriter;
+
+    @Value("${approval.expiry.ttl-ms}")
+    private long ttlMillis;
+
+    // "reject" or "approve"
+    @Value("${approval.expiry.policy}")
+    private String policy;
+
+    @Value("${approval.expiry.batch-interval-ms}")
+    private long batchIntervalMillis;
+
+    private final ConcurrentHashMap<Long, Timeout> timeouts = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Long> expired = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private HashedWheelTimer timer;
+    private volatile boolean stopped;
+
+    @PostConstruct
+    void start() {
+        timer = new HashedWheelTimer(new DefaultThreadFactory("pending-expiry", true),
+                100, TimeUnit.MILLISECONDS, 512);
+        timer.newTimeout(t -> Thread.ofVirtual().start(this::sweep), 0, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        stopped = true;
+        timer.stop();
+        flush();
+    }
+
+    public boolean autoApproves() {
+        return "approve".equalsIgnoreCase(policy);
+    }
+
+    /*
+    * Expire the query after the TTL. onExpire runs on the timer thread and must not block.
+     */
+    public void arm(long id, LongConsumer onExpire) {
+        // Scheduled inside compute: a timeout firing early waits in remove for the mapping to
+        // be in place, instead of finding nothing and leaving a stale entry behind
+        timeouts.compute(id, (key, previous) -> timer.newTimeout(t -> {
+            if (timeouts.remove(id, t)) {
+                onExpire.accept(id);
+            }
+        }, ttlMillis, TimeUnit.MILLISECONDS));
+    }
+
+    /*
+    * The query was resolved otherwise. Returns false if it already expired.
+     */
+    public boolean cancel(long id) {
+        Timeout timeout = timeouts.remove(id);
+        return timeout != null && timeout.cancel();
+    }
+
+    /*
+    * Queue the database update of an expired query. The first id of a batch schedules its flush.
+     */
+    public void expired(long id) {
+        expired.add(id);
+        if (!stopped && flushScheduled.compareAndSet(false, true)) {
+            timer.newTimeout(t -> Thread.ofVirtual().start(this::flush), batchIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        Status status = autoApproves() ? Status.APPROVED : Status.EXPIRED;
+        List<Long> batch = new ArrayList<>(BATCH_SIZE);
+        Long id;
+        while (true) {
+            id = expired.poll();
+            if (id != null) {
+                batch.add(id);
+            }
+            if (batch.size() == BATCH_SIZE || (id == null && !batch.isEmpty())) {
+                resolve(batch, status);
+                batch.clear();
+            }
+            if (id == null) {
+                return;
+            }
+        }
+    }
+
+    private void sweep() {
+        try {
+            flush(); // Queries that just expired are resolved by policy, not as orphans
+            List<Long> orphans = blockedQueryRepository.findExpiredPendingQueries(Instant.now().minusMillis(ttlMillis))
+                    .stream()
+                    .map(BlockedQuery::getId)
+                    .filter(id -> !timeouts.containsKey(id) && !blockedQueryWriter.isResolving(id))
+                    .toList();
+            for (int i = 0; i < orphans.size(); i += BATCH_SIZE) {
+                resolve(orphans.subList(i, Math.min(orphans.size(), i + BATCH_SIZE)), Status.EXPIRED);
+            }
+        } catch (Exception e) {
+            log.error("Failed to sweep expired pending queries: {}", e.getMessage());
+        } finally {
+            if (!stopped) {
+                timer.newTimeout(t -> Thread.ofVirtual().start(this::sweep), ttlMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void resolve(List<Long> ids, Status status) {
+        try {
+            int updated = blockedQueryRepository.resolvePending(ids, status, Instant.now(), RESOLVED_BY);
+            log.info("Expired {} pending queries as {}", updated, status);
+        } catch (Exception e) {
+            log.error("Failed to expire {} pending queries: {}", ids.size(), e.getMessage());
+        }
+    }
+}
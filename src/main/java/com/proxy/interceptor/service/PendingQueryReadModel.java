@@ -0,0 +1,72 @@
+package com.proxy.interceptor.service;
+
+import com.proxy.interceptor.dto.ApprovalTally;
+import com.proxy.interceptor.dto.PendingQueryView;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+* In-memory read model of the pending queries, so dashboard polls never reach PostgreSQL.
+*
+* Block, vote and resolve events update the views in place and bump the version. A read
+* materializes an immutable snapshot only when the version moved since the last one, so a
+* burst of votes between two polls costs one rebuild, and an idle poll costs nothing. The
+* ETag is derived from the version; the epoch keeps tags from a previous run from matching.
+ */
+@Component
+public class PendingQueryReadModel {
+
+    public record Snapshot(long version, String etag, List<PendingQueryView> queries) {}
+
+    private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private final ConcurrentSkipListMap<Long, PendingQueryView> views = new ConcurrentSkipListMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private volatile Snapshot snapshot = new Snapshot(0, etag(0), List.of());
+
+    public void blocked(PendingQueryView view) {
+        views.put(view.id(), view);
+        version.incrementAndGet();
+    }
+
+    // Counts are read inside the update, so the last of concurrent votes leaves the latest ones
+    public void voted(Long id, ApprovalTally tally) {
+        if (views.computeIfPresent(id, (k, view) -> view.withCounts(tally.approvals(), tally.rejections())) != null) {
+            version.incrementAndGet();
+        }
+    }
+
+    // Returns the view of the query, null if it was not pending
+    public PendingQueryView resolved(Long id) {
+        PendingQueryView view = views.remove(id);
+        if (view != null) {
+            version.incrementAndGet();
+        }
+        return view;
+    }
+
+    /*
+    * Pending queries in id (arrival) order.
+     */
+    public Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current.version() == version.get()) {
+            return current;
+        }
+        synchronized (this) {
+            // Read the version first: a concurrent event makes the next read rebuild again
+            long latest = version.get();
+            if (snapshot.version() != latest) {
+                snapshot = new Snapshot(latest, etag(latest), List.copyOf(views.values()));
+            }
+            return snapshot;
+        }
+    }
+
+    private String etag(long version) {
+        return "\"pending-" + epoch + "-" + version + "\"";
+    }
+}
@@ -0,0 +1,85 @@
+package com.proxy.interceptor.service;
+
+import com.proxy.interceptor.dto.PendingQuery;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+* Pending queries by id, with a secondary index from connection id to the ids it holds, so a
+* disconnect only touches that connection's entries.
+*
+* Every change to a query goes through a compute on its connection's index entry. The index
+* bin lock therefore serializes all changes for one connection, and both maps always agree
+* once a call returns. Lookups by id are plain reads of the primary map.
+ */
+public final class PendingQueryStore {
+
+    private final ConcurrentHashMap<Long, PendingQuery> byId = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Long>> byConnection = new ConcurrentHashMap<>();
+
+    public PendingQuery get(Long id) {
+        return byId.get(id);
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    public int connectionCount() {
+        return byConnection.size();
+    }
+
+    public void put(PendingQuery pending) {
+        byConnection.compute(pending.connId(), (connId, ids) -> {
+            Set<Long> held = ids != null ? ids : new HashSet<>();
+            held.add(pending.id());
+            byId.put(pending.id(), pending);
+            return held;
+        });
+    }
+
+    /*
+    * Remove and return the query, or null if it is no longer pending.
+     */
+    public PendingQuery remove(Long id) {
+        PendingQuery pending = byId.get(id);
+        return pending != null && remove(id, pending) ? pending : null;
+    }
+
+    /*
+    * Remove the query only if it is still the given entry. Exactly one of several concurrent
+    * callers (approval, expiry, disconnect) succeeds.
+     */
+    public boolean remove(Long id, PendingQuery pending) {
+        boolean[] removed = new boolean[1];
+        byConnection.computeIfPresent(pending.connId(), (connId, ids) -> {
+            if (byId.remove(id, pending)) {
+                ids.remove(id);
+                removed[0] = true;
+            }
+            return ids.isEmpty() ? null : ids;
+        });
+        return removed[0];
+    }
+
+    /*
+    * Remove and return every query held by the connection.
+     */
+    public List<PendingQuery> removeConnection(String connId) {
+        List<PendingQuery> removed = new ArrayList<>();
+        byConnection.computeIfPresent(connId, (k, ids) -> {
+            for (Long id : ids) {
+                PendingQuery pending = byId.remove(id);
+                if (pending != null) {
+                    removed.add(pending);
+                }
+            }
+            return null;
+        });
+        return removed;
+    }
+}
@@ -0,0 +1,233 @@
+package com.proxy.interceptor.service;
+
+import com.proxy.interceptor.dto.JournalRecord;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/*
+* Optional journal of every statement the proxy sees, for compliance.
+*
+* Event loops create an Entry when a statement is sent (SQL bytes copied, nothing decoded) and
+* complete it when the backend answers, or when the statement is held for approval. Completing
+* only offers the entry to a bounded queue: the event loop never touches the files, and an
+* entry that does not fit is dropped and counted. A single writer thread appends the entries
+* to rotating JournalSegment files and deletes the oldest beyond max-segments.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class QueryJournal {
+
+    private static final int BATCH_SIZE = 256;
+
+    private final MetricsService metricsService;
+
+    @Value("${proxy.journal.enabled}")
+    private boolean enabled;
+
+    @Value("${proxy.journal.dir}")
+    private Path dir;
+
+    @Value("${proxy.journal.segment-size}")
+    private int segmentSize;
+
+    @Value("${proxy.journal.max-segments}")
+    private int maxSegments;
+
+    @Value("${proxy.journal.index-interval}")
+    private int indexInterval;
+
+    @Value("${proxy.journal.queue-capacity}")
+    private int queueCapacity;
+
+    // Longer statements are truncated
+    @Value("${proxy.journal.max-sql-bytes}")
+    private int maxSqlBytes;
+
+    private BlockingQueue<Entry> queue;
+    private Thread writer;
+    private volatile boolean stopped;
+
+    // Writer thread only
+    private JournalSegment segment;
+    private long nextSequence;
+    private long lastTimestamp;
+
+    /*
+    * A statement on its way to the journal. Created and completed on the connection's event loop.
+     */
+    public final class Entry {
+        private final String connId;
+        private final String user;
+        private final long fingerprint;
+        private final String classification;
+        private final byte[] sql;
+        private long timestamp;
+        private long latencyNanos;
+
+        private Entry(String connId, String user, long fingerprint, String classification, byte[] sql) {
+            this.connId = connId;
+            this.user = user;
+            this.fingerprint = fingerprint;
+            this.classification = classification;
+            this.sql = sql;
+        }
+
+        public void complete(long latencyNanos) {
+            this.latencyNanos = latencyNanos;
+            this.timestamp = System.currentTimeMillis();
+            if (!queue.offer(this)) {
+                metricsService.trackJournalDropped();
+            }
+        }
+
+        public void held() {
+            complete(-1);
+        }
+    }
+
+    @PostConstruct
+    void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        if (segmentSize < maxSqlBytes + 64 * 1024) {
+            throw new IllegalStateException("proxy.journal.segment-size must exceed max-sql-bytes by at least 64 KiB");
+        }
+        Files.createDirectories(dir);
+        nextSequence = segments().stream().mapToLong(JournalSegment::sequence).max().orElse(0) + 1;
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        writer = Thread.ofPlatform().name("query-journal").daemon().start(this::run);
+        log.info("Query journal enabled in {}", dir);
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (writer != null) {
+            stopped = true;
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Entry entry(String connId, String user, long fingerprint, String classification,
+                       ByteBuf buf, int start, int end) {
+        byte[] sql = ByteBufUtil.getBytes(buf, start, Math.min(end - start, maxSqlBytes));
+        return new Entry(connId, user, fingerprint, classification, sql);
+    }
+
+    public Entry entry(String connId, String user, long fingerprint, String classification, String sql) {
+        byte[] bytes = sql.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxSqlBytes) {
+            bytes = Arrays.copyOf(bytes, maxSqlBytes);
+        }
+        return new Entry(connId, user, fingerprint, classification, bytes);
+    }
+
+    /*
+    * Records with a timestamp in [from, to], oldest first, read lazily. Close the stream when done.
+     */
+    public Stream<JournalRecord> read(Instant from, Instant to) throws IOException {
+        if (!enabled) {
+            throw new IllegalStateException("Query journal is not enabled");
+        }
+        JournalReader reader = new JournalReader(dir, from, to);
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(reader, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        while (!stopped || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                for (Entry entry : batch) {
+                    append(entry);
+                }
+                metricsService.trackJournalAppended(batch.size());
+            } catch (InterruptedException e) {
+                stopped = true;
+            } catch (IOException e) {
+                log.error("Failed to append to the query journal: {}", e.getMessage());
+                metricsService.trackError();
+                closeSegment(); // Continue in a new segment
+            } finally {
+                batch.clear();
+            }
+        }
+        closeSegment();
+    }
+
+    private void append(Entry entry) throws IOException {
+        // Entries complete on several event loops; keep the journal ordered for the index
+        long timestamp = Math.max(entry.timestamp, lastTimestamp);
+        lastTimestamp = timestamp;
+        if (segment == null || !segment.append(timestamp, entry.connId, entry.user, entry.fingerprint,
+                entry.classification, entry.latencyNanos, entry.sql)) {
+            rotate();
+            segment.append(timestamp, entry.connId, entry.user, entry.fingerprint,
+                    entry.classification, entry.latencyNanos, entry.sql);
+        }
+    }
+
+    private void rotate() throws IOException {
+        closeSegment();
+        segment = JournalSegment.create(dir, nextSequence++, segmentSize, indexInterval);
+        List<Path> segments = segments();
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            Path oldest = segments.get(i);
+            Files.deleteIfExists(JournalSegment.indexPath(oldest));
+            Files.deleteIfExists(oldest);
+        }
+    }
+
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.close();
+        } catch (IOException e) {
+            log.warn("Failed to close query journal segment: {}", e.getMessage());
+        }
+        segment = null;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(JournalSegment.SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+-- Ids of blocked_queries come from a pooled sequence (50 per call) instead of an identity
+-- column, so Hibernate can batch the inserts.
+CREATE SEQUENCE IF NOT EXISTS blocked_queries_seq INCREMENT BY 50;
+
+-- On databases created by ddl-auto the table already exists: start past its ids, leaving a
+-- whole allocation block of room, and drop the identity default.
+DO $$
+BEGIN
+    IF to_regclass('blocked_queries') IS NOT NULL THEN
+        PERFORM setval('blocked_queries_seq', COALESCE((SELECT max(id) FROM blocked_queries), 0) + 51, false);
+        ALTER TABLE blocked_queries ALTER COLUMN id DROP IDENTITY IF EXISTS;
+    END IF;
+END $$;
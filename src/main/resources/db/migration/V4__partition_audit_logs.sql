@@ -0,0 +1,98 @@
+-- audit_logs is range-partitioned by day on timestamp. Retention drops whole partitions
+-- (audit_logs_drop_partitions) instead of deleting rows, and queries bounded by time only
+-- scan the partitions they cover.
+
+-- Databases created by ddl-auto already have an unpartitioned table; its rows are copied over
+DO $$
+BEGIN
+    IF to_regclass('audit_logs') IS NOT NULL THEN
+        ALTER TABLE audit_logs RENAME TO audit_logs_unpartitioned;
+    END IF;
+END $$;
+
+-- A plain sequence default: identity columns on partitioned tables need PostgreSQL 17
+CREATE SEQUENCE audit_logs_seq;
+
+CREATE TABLE audit_logs (
+    id           bigint                      NOT NULL DEFAULT nextval('audit_logs_seq'),
+    username     varchar(255)                NOT NULL,
+    action       varchar(255)                NOT NULL,
+    details      varchar(4000),
+    ip_address   varchar(255),
+    timestamp    timestamp(6) with time zone NOT NULL,
+    request_hash varchar(255),
+    PRIMARY KEY (id, timestamp)
+) PARTITION BY RANGE (timestamp);
+
+ALTER SEQUENCE audit_logs_seq OWNED BY audit_logs.id;
+
+CREATE INDEX audit_logs_timestamp_idx ON audit_logs (timestamp DESC);
+CREATE INDEX audit_logs_username_idx ON audit_logs (username, timestamp DESC);
+CREATE INDEX audit_logs_request_hash_idx ON audit_logs (request_hash);
+
+-- Create the daily partitions audit_logs_pYYYYMMDD for [from_day, to_day], UTC days.
+-- Returns how many were created.
+CREATE FUNCTION audit_logs_create_partitions(from_day date, to_day date) RETURNS integer
+LANGUAGE plpgsql AS $$
+DECLARE
+    part_day  date := from_day;
+    part_name text;
+    created   integer := 0;
+BEGIN
+    WHILE part_day <= to_day LOOP
+        part_name := 'audit_logs_p' || to_char(part_day, 'YYYYMMDD');
+        IF to_regclass(part_name) IS NULL THEN
+            EXECUTE format('CREATE TABLE %I PARTITION OF audit_logs FOR VALUES FROM (%L) TO (%L)',
+                           part_name,
+                           part_day::timestamp AT TIME ZONE 'UTC',
+                           (part_day + 1)::timestamp AT TIME ZONE 'UTC');
+            created := created + 1;
+        END IF;
+        part_day := part_day + 1;
+    END LOOP;
+    RETURN created;
+END $$;
+
+-- Detach and drop the daily partitions of days before before_day. Returns how many were dropped.
+CREATE FUNCTION audit_logs_drop_partitions(before_day date) RETURNS integer
+LANGUAGE plpgsql AS $$
+DECLARE
+    part    record;
+    dropped integer := 0;
+BEGIN
+    FOR part IN
+        SELECT c.relname
+        FROM pg_inherits i
+        JOIN pg_class c ON c.oid = i.inhrelid
+        WHERE i.inhparent = 'audit_logs'::regclass
+          AND c.relname ~ '^audit_logs_p[0-9]{8}$'
+          AND to_date(substring(c.relname FROM 13), 'YYYYMMDD') < before_day
+    LOOP
+        EXECUTE format('ALTER TABLE audit_logs DETACH PARTITION %I', part.relname);
+        EXECUTE format('DROP TABLE %I', part.relname);
+        dropped := dropped + 1;
+    END LOOP;
+    RETURN dropped;
+END $$;
+
+-- Partitions from the oldest existing row up to a week ahead, then move the rows over
+DO $$
+DECLARE
+    oldest date := (now() AT TIME ZONE 'UTC')::date;
+BEGIN
+    IF to_regclass('audit_logs_unpartitioned') IS NOT NULL THEN
+        SELECT LEAST(oldest, COALESCE(min((timestamp AT TIME ZONE 'UTC')::date), oldest))
+        INTO oldest
+        FROM audit_logs_unpartitioned;
+    END IF;
+
+    PERFORM audit_logs_create_partitions(oldest, (now() AT TIME ZONE 'UTC')::date + 7);
+
+    IF to_regclass('audit_logs_unpartitioned') IS NOT NULL THEN
+        INSERT INTO audit_logs (id, username, action, details, ip_address, timestamp, request_hash)
+        SELECT id, username, action, details, ip_address, timestamp, request_hash
+        FROM audit_logs_unpartitioned;
+        PERFORM setval('audit_logs_seq', COALESCE((SELECT max(id) FROM audit_logs), 0) + 1, false);
+        DROP TABLE audit_logs_unpartitioned;
+    END IF;
+END $$;
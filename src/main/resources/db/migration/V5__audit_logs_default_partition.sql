@@ -0,0 +1,63 @@
+-- A DEFAULT partition catches rows no daily partition covers, e.g. when partition maintenance
+-- has not run for longer than audit.partitions.days-ahead, instead of failing the insert.
+-- AuditService counts its rows after every maintenance run and reports them as an error.
+CREATE TABLE audit_logs_default PARTITION OF audit_logs DEFAULT;
+
+-- As in V4, but a day's rows caught by the default partition are moved into the day's new
+-- partition: PostgreSQL refuses to create a partition for rows the default one holds.
+CREATE OR REPLACE FUNCTION audit_logs_create_partitions(from_day date, to_day date) RETURNS integer
+LANGUAGE plpgsql AS $$
+DECLARE
+    part_day  date := from_day;
+    part_name text;
+    part_from timestamptz;
+    part_to   timestamptz;
+    created   integer := 0;
+BEGIN
+    WHILE part_day <= to_day LOOP
+        part_name := 'audit_logs_p' || to_char(part_day, 'YYYYMMDD');
+        IF to_regclass(part_name) IS NULL THEN
+            part_from := part_day::timestamp AT TIME ZONE 'UTC';
+            part_to := (part_day + 1)::timestamp AT TIME ZONE 'UTC';
+
+            CREATE TEMP TABLE audit_logs_moved ON COMMIT DROP AS
+            WITH moved AS (
+                DELETE FROM audit_logs_default
+                WHERE timestamp >= part_from AND timestamp < part_to
+                RETURNING *
+            )
+            SELECT * FROM moved;
+
+            EXECUTE format('CREATE TABLE %I PARTITION OF audit_logs FOR VALUES FROM (%L) TO (%L)',
+                           part_name, part_from, part_to);
+            INSERT INTO audit_logs SELECT * FROM audit_logs_moved;
+            DROP TABLE audit_logs_moved;
+            created := created + 1;
+        END IF;
+        part_day := part_day + 1;
+    END LOOP;
+    RETURN created;
+END $$;
+
+-- As in V4, and retention also applies to the rows the default partition holds.
+CREATE OR REPLACE FUNCTION audit_logs_drop_partitions(before_day date) RETURNS integer
+LANGUAGE plpgsql AS $$
+DECLARE
+    part    record;
+    dropped integer := 0;
+BEGIN
+    FOR part IN
+        SELECT c.relname
+        FROM pg_inherits i
+        JOIN pg_class c ON c.oid = i.inhrelid
+        WHERE i.inhparent = 'audit_logs'::regclass
+          AND c.relname ~ '^audit_logs_p[0-9]{8}$'
+          AND to_date(substring(c.relname FROM 13), 'YYYYMMDD') < before_day
+    LOOP
+        EXECUTE format('ALTER TABLE audit_logs DETACH PARTITION %I', part.relname);
+        EXECUTE format('DROP TABLE %I', part.relname);
+        dropped := dropped + 1;
+    END LOOP;
+    DELETE FROM audit_logs_default WHERE timestamp < before_day::timestamp AT TIME ZONE 'UTC';
+    RETURN dropped;
+END $$;
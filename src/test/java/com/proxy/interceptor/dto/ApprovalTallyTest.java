@@ -0,0 +1,157 @@
+package com.proxy.interceptor.dto;
+
+import com.proxy.interceptor.model.Status;
+import com.proxy.interceptor.model.Vote;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ApprovalTallyTest {
+
+    @Test
+    void castReturnsThePreviousVote() {
+        ApprovalTally tally = new ApprovalTally();
+
+        assertNull(tally.cast("alice", Vote.APPROVE));
+        assertEquals(Vote.APPROVE, tally.cast("alice", Vote.APPROVE));
+        assertEquals(Vote.APPROVE, tally.cast("alice", Vote.REJECT));
+
+        assertEquals(0, tally.approvals());
+        assertEquals(1, tally.rejections());
+        assertEquals(List.of("alice"), tally.voters(Vote.REJECT));
+    }
+
+    @Test
+    void resolvesOnlyOnce() {
+        ApprovalTally tally = new ApprovalTally();
+
+        assertTrue(tally.resolve(Status.APPROVED));
+        assertFalse(tally.resolve(Status.REJECTED));
+        assertFalse(tally.resolve(Status.EXPIRED));
+        assertEquals(Status.APPROVED, tally.status());
+    }
+
+    @Test
+    void refusesVotesOnceResolved() {
+        ApprovalTally tally = new ApprovalTally();
+        tally.cast("alice", Vote.APPROVE);
+        tally.resolve(Status.REJECTED);
+
+        assertThrows(IllegalStateException.class, () -> tally.cast("bob", Vote.APPROVE));
+        assertEquals(1, tally.approvals());
+        assertEquals(List.of("alice"), tally.voters(Vote.APPROVE));
+    }
+
+    @Test
+    void revertRestoresThePreviousVote() {
+        ApprovalTally tally = new ApprovalTally();
+        tally.cast("alice", Vote.APPROVE);
+
+        tally.revert("alice", Vote.REJECT, tally.cast("alice", Vote.REJECT));
+        assertEquals(1, tally.approvals());
+        assertEquals(0, tally.rejections());
+
+        tally.revert("bob", Vote.REJECT, tally.cast("bob", Vote.REJECT));
+        assertEquals(0, tally.rejections());
+        assertTrue(tally.voters(Vote.REJECT).isEmpty());
+    }
+
+    /*
+    * Votes racing a resolution are either counted or refused, never counted after it.
+     */
+    @Test
+    void votesRacingTheResolutionAreCountedOrRefused() throws Exception {
+        int voters = 500;
+        ApprovalTally tally = new ApprovalTally();
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int v = 0; v < voters; v++) {
+                String username = "user" + v;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        tally.cast(username, Vote.APPROVE);
+                        accepted.incrementAndGet();
+                    } catch (IllegalStateException e) {
+                        // Resolved first
+                    }
+                    return null;
+                }));
+            }
+            Future<Integer> resolver = executor.submit(() -> {
+                start.await();
+                assertTrue(tally.resolve(Status.APPROVED));
+                return tally.approvals();
+            });
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            assertEquals(resolver.get(), tally.approvals());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(accepted.get(), tally.approvals());
+    }
+
+    /*
+    * Hundreds of approvers vote, change their minds and then race to resolve: the counters must
+    * match the final votes and exactly one resolution must win.
+     */
+    @Test
+    void concurrentVotersKeepCountsConsistent() throws Exception {
+        int voters = 500;
+        ApprovalTally tally = new ApprovalTally();
+        AtomicInteger resolutions = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch voted = new CountDownLatch(voters);
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int v = 0; v < voters; v++) {
+                String username = "user" + v;
+                boolean approves = v % 3 != 0;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 100; i++) {
+                        tally.cast(username, i % 2 == 0 ? Vote.REJECT : Vote.APPROVE);
+                    }
+                    tally.cast(username, approves ? Vote.APPROVE : Vote.REJECT);
+                    // Votes after the resolution are refused
+                    voted.countDown();
+                    voted.await();
+                    if (tally.resolve(approves ? Status.APPROVED : Status.REJECTED)) {
+                        resolutions.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        int approving = (int) IntStream.range(0, voters).filter(v -> v % 3 != 0).count();
+        assertEquals(approving, tally.approvals());
+        assertEquals(voters - approving, tally.rejections());
+        assertEquals(approving, tally.voters(Vote.APPROVE).size());
+        assertEquals(1, resolutions.get());
+    }
+}
@@ -0,0 +1,148 @@
+package com.proxy.interceptor.proxy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BackendMessageInspectorTest {
+
+    private static final long BACKEND_KEY = 1234L << 32 | 0x0A0B0C0DL;
+    private static final long CANCEL_KEY = 0x7F00_0001L << 32 | 0xCAFEBABEL;
+
+    // Startup and one query: AuthenticationOk, ParameterStatus, BackendKeyData, ReadyForQuery,
+    // then RowDescription, DataRow, CommandComplete and ReadyForQuery inside a transaction
+    private static final byte[] STREAM = stream();
+    private static final int KEY_OFFSET = keyOffset();
+
+    private static byte[] stream() {
+        ByteBuf buf = Unpooled.buffer();
+        message(buf, 'R', b -> b.writeInt(0));
+        message(buf, 'S', b -> {
+            cString(b, "server_version");
+            cString(b, "16.4");
+        });
+        message(buf, 'K', b -> b.writeLong(BACKEND_KEY));
+        message(buf, 'Z', b -> b.writeByte('I'));
+        message(buf, 'T', b -> {
+            b.writeShort(1);
+            cString(b, "id");
+            b.writeInt(0).writeShort(0).writeInt(23).writeShort(4).writeInt(-1).writeShort(0);
+        });
+        message(buf, 'D', b -> {
+            b.writeShort(1);
+            b.writeInt(1).writeByte('1');
+        });
+        message(buf, 'C', b -> cString(b, "SELECT 1"));
+        message(buf, 'Z', b -> b.writeByte('T'));
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.readBytes(bytes);
+        return bytes;
+    }
+
+    private static int keyOffset() {
+        for (int i = 0; ; i++) {
+            if (STREAM[i] == 'K' && STREAM[i + 4] == 12) {
+                return i + 5;
+            }
+        }
+    }
+
+    private static void message(ByteBuf buf, char type, Consumer<ByteBuf> body) {
+        ByteBuf content = Unpooled.buffer();
+        body.accept(content);
+        buf.writeByte(type).writeInt(4 + content.readableBytes()).writeBytes(content);
+    }
+
+    private static void cString(ByteBuf buf, String value) {
+        buf.writeBytes(value.getBytes(StandardCharsets.UTF_8)).writeByte(0);
+    }
+
+    private record Result(BackendMessageInspector inspector, ConnectionState session, int readyForQuery, byte[] output) {}
+
+    // Feed the stream in chunks ending at the given offsets, as separate reads
+    private static Result feed(List<Integer> splits, long cancelKey) {
+        BackendMessageInspector inspector = new BackendMessageInspector();
+        ConnectionState session = new ConnectionState("test");
+        session.cancelKey = cancelKey;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int readyForQuery = 0;
+        int from = 0;
+        for (int to : splits) {
+            ByteBuf chunk = Unpooled.copiedBuffer(STREAM, from, to - from);
+            readyForQuery += inspector.inspect(chunk, session);
+            byte[] forwarded = new byte[chunk.readableBytes()];
+            chunk.readBytes(forwarded);
+            output.writeBytes(forwarded);
+            from = to;
+        }
+        return new Result(inspector, session, readyForQuery, output.toByteArray());
+    }
+
+    private static byte[] rewritten(long key) {
+        byte[] expected = STREAM.clone();
+        for (int k = 0; k < 8; k++) {
+            expected[KEY_OFFSET + k] = (byte) (key >>> (56 - 8 * k));
+        }
+        return expected;
+    }
+
+    private static void assertInspected(Result result, long cancelKey) {
+        assertEquals(2, result.readyForQuery());
+        assertEquals('T', result.inspector().transactionStatus());
+        assertFalse(result.inspector().isIdle());
+        assertEquals('T', result.session().transactionStatus);
+        assertEquals("SELECT 1", result.session().lastCommandTag);
+        assertEquals(BACKEND_KEY, result.inspector().backendKey());
+        assertArrayEquals(cancelKey != 0 ? rewritten(cancelKey) : STREAM, result.output());
+    }
+
+    @Test
+    void wholeStream() {
+        assertInspected(feed(List.of(STREAM.length), CANCEL_KEY), CANCEL_KEY);
+    }
+
+    @Test
+    void oneByteChunks() {
+        List<Integer> splits = new ArrayList<>();
+        for (int i = 1; i <= STREAM.length; i++) {
+            splits.add(i);
+        }
+        assertInspected(feed(splits, CANCEL_KEY), CANCEL_KEY);
+    }
+
+    @Test
+    void everySplitIntoTwoAndThreeReads() {
+        for (int a = 1; a < STREAM.length; a++) {
+            assertInspected(feed(List.of(a, STREAM.length), CANCEL_KEY), CANCEL_KEY);
+            for (int b = a + 1; b < STREAM.length; b++) {
+                assertInspected(feed(List.of(a, b, STREAM.length), CANCEL_KEY), CANCEL_KEY);
+            }
+        }
+    }
+
+    @Test
+    void keyIsLeftAloneWithoutACancelKey() {
+        for (int a = 1; a < STREAM.length; a++) {
+            assertInspected(feed(List.of(a, STREAM.length), 0), 0);
+        }
+    }
+
+    @Test
+    void idleBackendWithoutSessionStillTracksState() {
+        BackendMessageInspector inspector = new BackendMessageInspector();
+        ByteBuf chunk = Unpooled.copiedBuffer(STREAM);
+
+        assertEquals(2, inspector.inspect(chunk, null));
+        assertEquals(BACKEND_KEY, inspector.backendKey());
+        assertEquals('T', inspector.transactionStatus());
+        assertEquals(Unpooled.wrappedBuffer(STREAM), chunk);
+    }
+}
@@ -0,0 +1,131 @@
+package com.proxy.interceptor.proxy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeywordAutomatonTest {
+
+    private static final KeywordAutomaton AUTOMATON = KeywordAutomaton.compile(
+            List.of("DROP TABLE", "ALTER", "TRUNCATE", "DELETE", "GRANT", "REVOKE", "UPDATE", "INSERT"),
+            List.of("SELECT", "CREATE"));
+
+    /*
+    * The keyword deciding the first statement of sql, or null when none matched.
+     */
+    private static String decidingKeyword(String sql) {
+        ByteBuf buf = Unpooled.copiedBuffer(sql, StandardCharsets.UTF_8);
+        try {
+            int state = AUTOMATON.scan(new SqlLexer().reset(buf, 0, buf.writerIndex()));
+            return state < 0 ? null : AUTOMATON.keyword(state);
+        } finally {
+            buf.release();
+        }
+    }
+
+    /*
+    * Run raw bytes through the transition table, without the lexer: the deciding keyword, the
+    * first critical one or otherwise the first allowed one, or null.
+     */
+    private static String match(KeywordAutomaton automaton, String text) {
+        byte[] bytes = (text + " ").getBytes(StandardCharsets.UTF_8);
+        int state = automaton.initialState();
+        boolean atBoundary = true;
+        String allowed = null;
+        for (byte b : bytes) {
+            int cls = automaton.classOf(b);
+            if (cls == KeywordAutomaton.BOUNDARY && atBoundary) {
+                continue;
+            }
+            atBoundary = cls == KeywordAutomaton.BOUNDARY;
+            state = automaton.step(state, cls);
+            if (automaton.kind(state) == KeywordAutomaton.CRITICAL) {
+                return automaton.keyword(state);
+            }
+            if (automaton.kind(state) == KeywordAutomaton.ALLOWED && allowed == null) {
+                allowed = automaton.keyword(state);
+            }
+        }
+        return allowed;
+    }
+
+    @Test
+    void keywordsNeedAWordBoundaryOnBothSides() {
+        assertEquals("UPDATE", match(AUTOMATON, "UPDATE t"));
+        assertEquals("UPDATE", match(AUTOMATON, "x(update)"));
+        assertEquals("DELETE", match(AUTOMATON, "t.delete"));
+        assertNull(match(AUTOMATON, "updated_at"));
+        assertNull(match(AUTOMATON, "inserts"));
+        assertNull(match(AUTOMATON, "x_delete"));
+        assertNull(match(AUTOMATON, "delete1"));
+        assertNull(match(AUTOMATON, "a$delete"));
+        // Multibyte characters are letters
+        assertNull(match(AUTOMATON, "\u00e9delete"));
+    }
+
+    @Test
+    void matchesCaseInsensitivelyAndAcrossWhitespaceRuns() {
+        assertEquals("DROP TABLE", match(AUTOMATON, "drop  \t\n Table t"));
+        assertEquals("SELECT", match(AUTOMATON, "SeLeCt 1"));
+        assertNull(match(AUTOMATON, "DROP TABLES"));
+        assertNull(match(AUTOMATON, "DROP INDEX i"));
+    }
+
+    @Test
+    void criticalKeywordsWinOverAllowedOnes() {
+        assertEquals("DELETE", match(AUTOMATON, "SELECT 1 DELETE"));
+        assertEquals("SELECT", match(AUTOMATON, "SELECT 1 CREATE"));
+        // Listed in both: critical
+        KeywordAutomaton both = KeywordAutomaton.compile(List.of("delete"), List.of("DELETE"));
+        assertEquals(KeywordAutomaton.CRITICAL, both.kind(stateAfter(both, "DELETE ")));
+    }
+
+    @Test
+    void failureLinksFindKeywordsStartingInsideAPartialMatch() {
+        KeywordAutomaton automaton = KeywordAutomaton.compile(List.of("DROP TABLE", "TABLESPACE"), List.of("DROP"));
+        assertEquals("TABLESPACE", match(automaton, "DROP TABLESPACE ts"));
+        assertEquals("DROP TABLE", match(automaton, "DROP TABLE t"));
+        assertEquals("DROP", match(automaton, "DROP VIEW v"));
+    }
+
+    private static int stateAfter(KeywordAutomaton automaton, String word) {
+        int state = automaton.initialState();
+        for (byte b : word.getBytes(StandardCharsets.UTF_8)) {
+            state = automaton.step(state, automaton.classOf(b));
+        }
+        return state;
+    }
+
+    @Test
+    void matchesWholeWordsOnly() {
+        assertEquals("SELECT", decidingKeyword("SELECT updated_at, deleted FROM t"));
+        assertEquals("UPDATE", decidingKeyword("update t set x = 1"));
+        assertEquals("DROP TABLE", decidingKeyword("DROP\n\tTABLE t"));
+        assertNull(decidingKeyword("VACUUM t"));
+        assertEquals(KeywordAutomaton.EMPTY, AUTOMATON.scan(new SqlLexer().reset(Unpooled.EMPTY_BUFFER, 0, 0)));
+    }
+
+    @Test
+    void ignoresKeywordsInLiteralsAndComments() {
+        assertEquals("SELECT", decidingKeyword("SELECT 'DELETE', \"drop\", E'\\'DELETE' /* DROP */ -- DELETE"));
+    }
+
+    @Test
+    void carriageReturnEndsLineComment() {
+        assertEquals("DELETE", decidingKeyword("SELECT 1 --x\rDELETE FROM users"));
+    }
+
+    @Test
+    void scansDollarQuotedBodies() {
+        assertEquals("DELETE", decidingKeyword(
+                "CREATE FUNCTION f() RETURNS void LANGUAGE sql AS $$ DELETE FROM users $$"));
+        assertEquals("DROP TABLE", decidingKeyword("DO $$ BEGIN DROP TABLE t; END $$"));
+        assertEquals("DELETE", decidingKeyword("DO $body$DELETE FROM users$body$"));
+        assertEquals("CREATE", decidingKeyword("CREATE FUNCTION f() RETURNS int AS $$ SELECT 1 $$ LANGUAGE sql"));
+    }
+}
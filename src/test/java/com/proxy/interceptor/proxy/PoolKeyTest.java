@@ -0,0 +1,29 @@
+package com.proxy.interceptor.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PoolKeyTest {
+
+    @Test
+    void databaseDefaultsToTheUser() {
+        PoolKey key = PoolKey.of(Map.of("user", "alice"));
+
+        assertEquals("alice", key.user());
+        assertEquals("alice", key.database());
+        assertEquals(PoolKey.of(Map.of("user", "alice", "database", "alice")), key);
+    }
+
+    @Test
+    void sessionsWithOtherStartupParametersDoNotShareBackends() {
+        Map<String, String> base = Map.of("user", "alice", "database", "app", "client_encoding", "UTF8");
+
+        assertEquals(PoolKey.of(base), PoolKey.of(Map.of("database", "app", "client_encoding", "UTF8", "user", "alice")));
+        assertNotEquals(PoolKey.of(base), PoolKey.of(Map.of("user", "alice", "database", "app", "client_encoding", "LATIN1")));
+        assertNotEquals(PoolKey.of(base), PoolKey.of(Map.of("user", "alice", "database", "app", "client_encoding", "UTF8",
+                "options", "-c search_path=tenant_b")));
+    }
+}
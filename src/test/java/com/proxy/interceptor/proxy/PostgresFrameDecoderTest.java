@@ -0,0 +1,136 @@
+package com.proxy.interceptor.proxy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PostgresFrameDecoderTest {
+
+    private static final int MAX_MESSAGE_LENGTH = 1024;
+
+    private static EmbeddedChannel channel() {
+        return new EmbeddedChannel(new PostgresFrameDecoder(MAX_MESSAGE_LENGTH));
+    }
+
+    private static ByteBuf startup() {
+        byte[] parameters = "user\0alice\0database\0app\0\0".getBytes(StandardCharsets.UTF_8);
+        return Unpooled.buffer().writeInt(8 + parameters.length).writeInt(196608).writeBytes(parameters);
+    }
+
+    private static ByteBuf request(int code) {
+        return Unpooled.buffer().writeInt(8).writeInt(code);
+    }
+
+    private static ByteBuf query(String sql) {
+        byte[] bytes = sql.getBytes(StandardCharsets.UTF_8);
+        return Unpooled.buffer().writeByte('Q').writeInt(4 + bytes.length + 1).writeBytes(bytes).writeByte(0);
+    }
+
+    private static void assertFrame(ByteBuf expected, EmbeddedChannel channel) {
+        ByteBuf frame = channel.readInbound();
+        assertNotNull(frame);
+        try {
+            assertEquals(expected, frame);
+        } finally {
+            frame.release();
+            expected.release();
+        }
+    }
+
+    @Test
+    void startupThenTypedFrames() {
+        EmbeddedChannel channel = channel();
+        ByteBuf in = Unpooled.buffer().writeBytes(startup()).writeBytes(query("SELECT 1")).writeBytes(query("SELECT 2"));
+
+        assertTrue(channel.writeInbound(in));
+        assertFrame(startup(), channel);
+        assertFrame(query("SELECT 1"), channel);
+        assertFrame(query("SELECT 2"), channel);
+        assertNull(channel.readInbound());
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    void sslAndGssEncRequestsKeepTheDecoderInStartupMode() {
+        EmbeddedChannel channel = channel();
+
+        channel.writeInbound(request(PostgresFrameDecoder.GSSENC_REQUEST_CODE));
+        channel.writeInbound(request(PostgresFrameDecoder.SSL_REQUEST_CODE));
+        channel.writeInbound(startup());
+        channel.writeInbound(query("SELECT 1"));
+
+        assertFrame(request(PostgresFrameDecoder.GSSENC_REQUEST_CODE), channel);
+        assertFrame(request(PostgresFrameDecoder.SSL_REQUEST_CODE), channel);
+        assertFrame(startup(), channel);
+        assertFrame(query("SELECT 1"), channel);
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    void framesSplitAcrossReadsAreEmittedWhole() {
+        ByteBuf stream = Unpooled.buffer().writeBytes(startup()).writeBytes(query("SELECT 1")).writeBytes(query("SELECT 22"));
+        int length = stream.readableBytes();
+
+        for (int chunk = 1; chunk < length; chunk++) {
+            EmbeddedChannel channel = channel();
+            for (int i = 0; i < length; i += chunk) {
+                channel.writeInbound(stream.retainedSlice(i, Math.min(chunk, length - i)));
+            }
+            assertFrame(startup(), channel);
+            assertFrame(query("SELECT 1"), channel);
+            assertFrame(query("SELECT 22"), channel);
+            assertNull(channel.readInbound());
+            assertFalse(channel.finish());
+        }
+        stream.release();
+    }
+
+    @Test
+    void rejectsStartupLengthsOutsidePostgresLimits() {
+        assertThrows(CorruptedFrameException.class,
+                () -> channel().writeInbound(Unpooled.buffer().writeInt(7).writeInt(196608)));
+        assertThrows(CorruptedFrameException.class,
+                () -> channel().writeInbound(Unpooled.buffer()
+                        .writeInt(PostgresFrameDecoder.MAX_STARTUP_LENGTH + 1).writeInt(196608)));
+    }
+
+    @Test
+    void rejectsTypedLengthBelowItsOwnSize() {
+        EmbeddedChannel channel = channel();
+        channel.writeInbound(startup());
+        assertFrame(startup(), channel);
+
+        assertThrows(CorruptedFrameException.class,
+                () -> channel.writeInbound(Unpooled.buffer().writeByte('Q').writeInt(3)));
+    }
+
+    @Test
+    void rejectsTypedFramesOverTheLimitBeforeBufferingThem() {
+        EmbeddedChannel channel = channel();
+        channel.writeInbound(startup());
+        assertFrame(startup(), channel);
+
+        // Only the header has arrived, the body is never buffered
+        assertThrows(TooLongFrameException.class,
+                () -> channel.writeInbound(Unpooled.buffer().writeByte('Q').writeInt(MAX_MESSAGE_LENGTH + 1)));
+    }
+
+    @Test
+    void acceptsTypedFramesAtTheLimit() {
+        EmbeddedChannel channel = channel();
+        channel.writeInbound(startup());
+        assertFrame(startup(), channel);
+
+        ByteBuf frame = Unpooled.buffer().writeByte('d').writeInt(MAX_MESSAGE_LENGTH).writeZero(MAX_MESSAGE_LENGTH - 4);
+        channel.writeInbound(frame.retainedDuplicate());
+        assertFrame(frame, channel);
+        assertFalse(channel.finish());
+    }
+}
@@ -0,0 +1,134 @@
+package com.proxy.interceptor.proxy;
+
+import com.proxy.interceptor.service.MetricsService;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+* Classification cost of a Simple Query frame: the original algorithm (decode the SQL into a
+* String, upper-case it and search it for every keyword) against the keyword automaton over
+* the frame bytes. The substring search also matches UPDATE inside updated_at, so the baseline
+* classifies this query as CRITICAL where the automaton allows it.
+*
+* ClientHandler fingerprints every query for its latency histogram and hands the fingerprint
+* to the classifier, so the cache's hit path is classifyKnownFingerprint; fingerprint is what
+* that costs up front. classifyFrameBytes has no fingerprint and always scans.
+* Run with: ./mvnw test-compile exec:java -Dexec.classpathScope=test
+*           -Dexec.mainClass=com.proxy.interceptor.proxy.SqlClassifierBenchmark
+* and compare gc.alloc.rate.norm between the two benchmarks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SqlClassifierBenchmark {
+
+    private static final String SQL =
+            "SELECT o.id, o.total, c.name FROM orders o JOIN customers c ON c.id = o.customer_id " +
+            "WHERE o.status = 'shipped' AND o.updated_at > now() - interval '1 day' LIMIT 50";
+
+    private static final List<String> CRITICAL_KEYWORDS =
+            List.of("DROP", "ALTER", "TRUNCATE", "DELETE", "GRANT", "REVOKE", "UPDATE", "INSERT");
+    private static final List<String> ALLOWED_KEYWORDS = List.of("SELECT", "CREATE");
+
+    // 0 disables the classification cache; decodeThenClassify has none
+    @Param({"0", "16384"})
+    public int cacheSize;
+
+    private SqlClassifier classifier;
+    private WireProtocolHandler protocolHandler;
+    private ByteBuf frame;
+    private long knownFingerprint;
+
+    @Setup
+    public void setup() {
+        classifier = new SqlClassifier(new MetricsService());
+        ReflectionTestUtils.setField(classifier, "criticalKeywords", CRITICAL_KEYWORDS);
+        ReflectionTestUtils.setField(classifier, "allowedKeywords", ALLOWED_KEYWORDS);
+        ReflectionTestUtils.setField(classifier, "blockedByDefault", true);
+        ReflectionTestUtils.setField(classifier, "cacheSize", cacheSize);
+        classifier.compileKeywords();
+
+        protocolHandler = new WireProtocolHandler();
+
+        byte[] sql = SQL.getBytes(StandardCharsets.UTF_8);
+        frame = Unpooled.directBuffer(6 + sql.length);
+        frame.writeByte('Q');
+        frame.writeInt(4 + sql.length + 1);
+        frame.writeBytes(sql);
+        frame.writeByte(0);
+
+        int end = protocolHandler.simpleQueryEnd(frame);
+        knownFingerprint = classifier.fingerprint(frame, protocolHandler.simpleQueryStart(frame), end);
+        classifier.findBlockingStatement(frame, protocolHandler.simpleQueryStart(frame), end, knownFingerprint);
+    }
+
+    @TearDown
+    public void tearDown() {
+        frame.release();
+    }
+
+    @Benchmark
+    public Classification decodeThenClassify() {
+        int end = protocolHandler.simpleQueryEnd(frame);
+        String sql = protocolHandler.readSql(frame, protocolHandler.simpleQueryStart(frame), end);
+        return substringClassify(sql);
+    }
+
+    @Benchmark
+    public Classification classifyFrameBytes() {
+        int end = protocolHandler.simpleQueryEnd(frame);
+        return classifier.classify(frame, protocolHandler.simpleQueryStart(frame), end);
+    }
+
+    // The classifier before the keyword automaton, without its debug logging
+    private static Classification substringClassify(String sql) {
+        if (sql == null || sql.isBlank()) {
+            return Classification.ALLOWED;
+        }
+
+        String upperSql = sql.toUpperCase();
+        for (String keyword : CRITICAL_KEYWORDS) {
+            if (upperSql.contains(keyword.toUpperCase())) {
+                return Classification.CRITICAL;
+            }
+        }
+        for (String keyword : ALLOWED_KEYWORDS) {
+            if (upperSql.contains(keyword.toUpperCase())) {
+                return Classification.ALLOWED;
+            }
+        }
+        return Classification.CRITICAL;
+    }
+
+    @Benchmark
+    public StatementMatch classifyKnownFingerprint() {
+        int end = protocolHandler.simpleQueryEnd(frame);
+        return classifier.findBlockingStatement(frame, protocolHandler.simpleQueryStart(frame), end, knownFingerprint);
+    }
+
+    @Benchmark
+    public long fingerprint() {
+        int end = protocolHandler.simpleQueryEnd(frame);
+        return classifier.fingerprint(frame, protocolHandler.simpleQueryStart(frame), end);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SqlClassifierBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
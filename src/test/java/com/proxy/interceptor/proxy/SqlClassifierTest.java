@@ -0,0 +1,44 @@
+package com.proxy.interceptor.proxy;
+
+import com.proxy.interceptor.service.MetricsService;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqlClassifierTest {
+
+    private static SqlClassifier classifier() {
+        SqlClassifier classifier = new SqlClassifier(new MetricsService());
+        ReflectionTestUtils.setField(classifier, "criticalKeywords", List.of("DROP", "DELETE", "UPDATE", "TRUNCATE"));
+        ReflectionTestUtils.setField(classifier, "allowedKeywords", List.of("SELECT", "CREATE"));
+        ReflectionTestUtils.setField(classifier, "blockedByDefault", true);
+        ReflectionTestUtils.setField(classifier, "cacheSize", 0);
+        classifier.compileKeywords();
+        return classifier;
+    }
+
+    @Test
+    void keywordsInLiteralsIdentifiersAndCommentsDoNotBlock() {
+        SqlClassifier classifier = classifier();
+
+        assertEquals(Classification.ALLOWED, classifier.classify("SELECT 'DROP TABLE users' AS note"));
+        assertEquals(Classification.ALLOWED, classifier.classify("SELECT \"delete\" FROM t -- DELETE FROM t"));
+        assertEquals(Classification.ALLOWED, classifier.classify("SELECT /* outer /* DROP */ still comment */ updated_at FROM t"));
+        assertEquals(Classification.ALLOWED, classifier.classify("SELECT E'\\' DELETE' FROM t"));
+        assertEquals(Classification.ALLOWED, classifier.classify("SELECT U&'\\0044ROP' FROM t"));
+    }
+
+    @Test
+    void keywordsInCodeStillBlock() {
+        SqlClassifier classifier = classifier();
+
+        assertEquals(Classification.CRITICAL, classifier.classify("SELECT 1 --x\rDELETE FROM t"));
+        assertEquals(Classification.CRITICAL, classifier.classify("SELECT 'a'; DELETE FROM t"));
+        assertEquals(Classification.CRITICAL, classifier.classify("DO $$ BEGIN TRUNCATE t; END $$"));
+        assertEquals(Classification.CRITICAL, classifier.classify("VACUUM t"));
+        assertEquals(Classification.ALLOWED, classifier.classify("  -- only a comment"));
+    }
+}
@@ -0,0 +1,114 @@
+package com.proxy.interceptor.proxy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqlLexerTest {
+
+    /*
+    * Lex the whole input into "TYPE:text" strings; dollar-quoted tokens show their body.
+     */
+    private static List<String> tokens(String sql) {
+        ByteBuf buf = Unpooled.copiedBuffer(sql, StandardCharsets.UTF_8);
+        try {
+            SqlLexer lexer = new SqlLexer().reset(buf, 0, buf.writerIndex());
+            List<String> tokens = new ArrayList<>();
+            for (int type = lexer.next(); type != SqlLexer.EOF; type = lexer.next()) {
+                int start = type == SqlLexer.DOLLAR_STRING ? lexer.contentStart() : lexer.tokenStart();
+                int end = type == SqlLexer.DOLLAR_STRING ? lexer.contentEnd() : lexer.tokenEnd();
+                tokens.add(name(type) + ":" + buf.toString(start, end - start, StandardCharsets.UTF_8));
+            }
+            return tokens;
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static String name(int type) {
+        return switch (type) {
+            case SqlLexer.WORD -> "WORD";
+            case SqlLexer.NUMBER -> "NUMBER";
+            case SqlLexer.STRING -> "STRING";
+            case SqlLexer.QUOTED_IDENTIFIER -> "QUOTED";
+            case SqlLexer.PARAMETER -> "PARAM";
+            case SqlLexer.SEMICOLON -> "SEMI";
+            case SqlLexer.RAW -> "RAW";
+            case SqlLexer.DOLLAR_STRING -> "DOLLAR";
+            default -> "SYMBOL";
+        };
+    }
+
+    @Test
+    void standardStringsAndQuotedIdentifiersDoubleTheirQuotes() {
+        assertEquals(List.of("WORD:SELECT", "STRING:'it''s; DELETE'", "SYMBOL:,", "QUOTED:\"a\"\"; DROP\"", "WORD:FROM", "WORD:t"),
+                tokens("SELECT 'it''s; DELETE', \"a\"\"; DROP\" FROM t"));
+        assertEquals(List.of("WORD:SELECT", "NUMBER:1.5e3", "SEMI:;", "WORD:DELETE"), tokens("SELECT 1.5e3; DELETE"));
+    }
+
+    @Test
+    void lexesOnlyTheGivenRange() {
+        // A Simple Query frame: type, length, SQL, terminator
+        ByteBuf buf = Unpooled.buffer().writeByte('Q').writeInt(4 + 9).writeBytes("DELETE x".getBytes(StandardCharsets.UTF_8)).writeByte(0);
+        try {
+            SqlLexer lexer = new SqlLexer().reset(buf, 5, 11);
+            assertEquals(SqlLexer.WORD, lexer.next());
+            assertEquals("DELETE", buf.toString(lexer.tokenStart(), lexer.tokenEnd() - lexer.tokenStart(), StandardCharsets.UTF_8));
+            assertEquals(SqlLexer.EOF, lexer.next());
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    void lineCommentEndsAtCarriageReturn() {
+        assertEquals(List.of("WORD:SELECT", "NUMBER:1", "WORD:DELETE", "WORD:FROM", "WORD:users"),
+                tokens("SELECT 1 --x\rDELETE FROM users"));
+        assertEquals(List.of("WORD:SELECT", "NUMBER:1", "WORD:DELETE"),
+                tokens("SELECT 1 --x\r\nDELETE"));
+        assertEquals(List.of("WORD:SELECT", "NUMBER:1"), tokens("SELECT 1 -- DELETE"));
+    }
+
+    @Test
+    void blockCommentsNest() {
+        assertEquals(List.of("WORD:SELECT", "NUMBER:1"), tokens("SELECT /* a /* DELETE */ still */ 1"));
+        // Unterminated: the rest of the input is comment
+        assertEquals(List.of("WORD:SELECT"), tokens("SELECT /* /* */ DELETE"));
+    }
+
+    @Test
+    void escapeStringsHonourBackslashes() {
+        assertEquals(List.of("WORD:SELECT", "STRING:E'it\\'s; DELETE'", "SEMI:;", "WORD:DROP"),
+                tokens("SELECT E'it\\'s; DELETE'; DROP"));
+        assertEquals(List.of("WORD:SELECT", "STRING:e'a''b'", "WORD:x"), tokens("SELECT e'a''b' x"));
+        // A backslash in a plain literal depends on standard_conforming_strings
+        assertEquals(List.of("WORD:SELECT", "RAW:'a\\'; DELETE"), tokens("SELECT 'a\\'; DELETE"));
+    }
+
+    @Test
+    void unicodeEscapes() {
+        assertEquals(List.of("WORD:SELECT", "QUOTED:U&\"d\\0061t\"\"DELETE\"", "WORD:FROM", "WORD:t"),
+                tokens("SELECT U&\"d\\0061t\"\"DELETE\" FROM t"));
+        assertEquals(List.of("WORD:SELECT", "STRING:u&'DELETE'"), tokens("SELECT u&'DELETE'"));
+        // Not followed by a quote: an ordinary word and a symbol
+        assertEquals(List.of("WORD:U", "SYMBOL:&", "WORD:x"), tokens("U& x"));
+    }
+
+    @Test
+    void dollarQuotesExposeTheirBody() {
+        assertEquals(List.of("WORD:DO", "DOLLAR: BEGIN DROP TABLE t; END ", "SEMI:;"),
+                tokens("DO $$ BEGIN DROP TABLE t; END $$;"));
+        // The body ends at the matching tag only
+        assertEquals(List.of("WORD:SELECT", "DOLLAR:a $$ b $x$ c", "WORD:y"),
+                tokens("SELECT $fn$a $$ b $x$ c$fn$ y"));
+        assertEquals(List.of("WORD:SELECT", "PARAM:$1", "SYMBOL:+", "PARAM:$2"), tokens("SELECT $1 + $2"));
+        // Unterminated: the body runs to the end of input
+        assertEquals(List.of("WORD:SELECT", "DOLLAR: DELETE"), tokens("SELECT $q$ DELETE"));
+    }
+}
@@ -0,0 +1,107 @@
+package com.proxy.interceptor.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditRingBufferTest {
+
+    private static final Instant NOW = Instant.EPOCH;
+
+    @Test
+    void dropOverflowCountsDiscardedEvents() {
+        AuditRingBuffer buffer = new AuditRingBuffer(4, AuditRingBuffer.Overflow.DROP);
+        for (int i = 0; i < 6; i++) {
+            buffer.publish("user", "action-" + i, null, null, null, NOW);
+        }
+
+        List<String> actions = new ArrayList<>();
+        assertEquals(4, buffer.drain(10, slot -> actions.add(slot.action())));
+        assertEquals(List.of("action-0", "action-1", "action-2", "action-3"), actions);
+        assertEquals(2, buffer.dropped());
+        assertEquals(0, buffer.depth());
+
+        // Drained slots are free again
+        assertTrue(buffer.publish("user", "action-6", null, null, null, NOW));
+        assertEquals(1, buffer.depth());
+    }
+
+    @Test
+    void rejectsCapacityThatIsNotAPowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new AuditRingBuffer(1000, AuditRingBuffer.Overflow.BLOCK));
+    }
+
+    /*
+    * Producers outnumber and outpace the consumer on a small blocking ring: every event must
+    * come out exactly once, and each producer's events in the order it published them.
+     */
+    @Test
+    void awaitReturnsOncePublishedAndWakesOnPublish() throws Exception {
+        AuditRingBuffer buffer = new AuditRingBuffer(4, AuditRingBuffer.Overflow.DROP);
+        buffer.publish("u", "a", null, null, null, NOW);
+        buffer.await();
+        assertEquals(1, buffer.drain(4, slot -> {}));
+
+        CountDownLatch parked = new CountDownLatch(1);
+        Thread consumer = Thread.ofPlatform().start(() -> {
+            parked.countDown();
+            buffer.await();
+        });
+        parked.await();
+        buffer.publish("u", "b", null, null, null, NOW);
+        consumer.join(5_000);
+        assertFalse(consumer.isAlive());
+    }
+
+    @Test
+    void blockingRingDeliversEveryEventInProducerOrder() throws Exception {
+        int producers = 8;
+        int perProducer = 100_000;
+        AuditRingBuffer buffer = new AuditRingBuffer(64, AuditRingBuffer.Overflow.BLOCK);
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                String producer = "p" + p;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perProducer; i++) {
+                        buffer.publish(producer, Integer.toString(i), null, null, null, NOW);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+
+            int[] next = new int[producers];
+            long received = 0;
+            long total = (long) producers * perProducer;
+            while (received < total) {
+                received += buffer.drain(16, slot -> {
+                    int producer = Integer.parseInt(slot.username().substring(1));
+                    assertEquals(next[producer]++, Integer.parseInt(slot.action()), slot.username());
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            for (int p = 0; p < producers; p++) {
+                assertEquals(perProducer, next[p]);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(0, buffer.depth());
+        assertEquals(0, buffer.dropped());
+    }
+}
@@ -0,0 +1,121 @@
+package com.proxy.interceptor.service;
+
+import com.proxy.interceptor.model.BlockedQuery;
+import com.proxy.interceptor.model.Status;
+import com.proxy.interceptor.repository.BlockedQueryRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class BlockedQueryWriterTest {
+
+    private final BlockedQueryRepository repository = mock(BlockedQueryRepository.class);
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+    private BlockedQueryWriter writer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        doAnswer(invocation -> {
+            invocation.getArgument(0, Consumer.class).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+
+        writer = new BlockedQueryWriter(repository, jdbcTemplate, transactionTemplate, new MetricsService());
+        ReflectionTestUtils.setField(writer, "queueCapacity", 16);
+        ReflectionTestUtils.setField(writer, "batchSize", 16);
+        writer.start();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        writer.stop();
+    }
+
+    private static BlockedQuery query(String connId) {
+        return BlockedQuery.builder().connId(connId).build();
+    }
+
+    @Test
+    void failedBatchIsWrittenOneByOne() throws Exception {
+        BlockedQuery first = query("first");
+        BlockedQuery bad = query("bad");
+        BlockedQuery good = query("good");
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            List<BlockedQuery> batch = invocation.getArgument(0);
+            if (batch.contains(first)) {
+                writing.countDown();
+                release.await(); // Holds the writer until the next two are queued together
+                return batch;
+            }
+            batch.forEach(q -> q.setId(42L)); // Assigned, then rolled back
+            throw new DataIntegrityViolationException("bad row");
+        }).when(repository).saveAllAndFlush(anyList());
+        when(repository.saveAndFlush(any())).thenAnswer(invocation -> {
+            BlockedQuery q = invocation.getArgument(0);
+            assertNull(q.getId());
+            if (q == bad) {
+                throw new DataIntegrityViolationException("bad row");
+            }
+            return q;
+        });
+
+        CompletableFuture<Void> firstDone = writer.insert(first);
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> badDone = writer.insert(bad);
+        CompletableFuture<Void> goodDone = writer.insert(good);
+        release.countDown();
+
+        firstDone.get(5, TimeUnit.SECONDS);
+        goodDone.get(5, TimeUnit.SECONDS);
+        assertThrows(ExecutionException.class, () -> badDone.get(5, TimeUnit.SECONDS));
+        verify(repository).saveAllAndFlush(List.of(bad, good));
+    }
+
+    @Test
+    void failedResolutionIsRetriedAndHiddenFromTheSweepUntilWritten() throws Exception {
+        doThrow(new TransientDataAccessResourceException("down")).when(jdbcTemplate).batchUpdate(anyString(), anyList());
+        when(jdbcTemplate.update(anyString(), any(Object[].class)))
+                .thenThrow(new TransientDataAccessResourceException("down"))
+                .thenReturn(1);
+
+        CompletableFuture<Void> done = writer.resolve(7, Status.APPROVED, Instant.now(), "admin");
+        assertTrue(writer.isResolving(7));
+
+        done.get(5, TimeUnit.SECONDS);
+        assertFalse(writer.isResolving(7));
+        verify(jdbcTemplate, times(2)).update(anyString(), any(Object[].class));
+    }
+
+    @Test
+    void resolutionThatNeverSucceedsStaysHiddenFromTheSweep() {
+        doThrow(new TransientDataAccessResourceException("down")).when(jdbcTemplate).batchUpdate(anyString(), anyList());
+        when(jdbcTemplate.update(anyString(), any(Object[].class)))
+                .thenThrow(new TransientDataAccessResourceException("down"));
+
+        CompletableFuture<Void> done = writer.resolve(7, Status.REJECTED, Instant.now(), "admin");
+
+        assertThrows(ExecutionException.class, () -> done.get(10, TimeUnit.SECONDS));
+        assertTrue(writer.isResolving(7));
+    }
+}
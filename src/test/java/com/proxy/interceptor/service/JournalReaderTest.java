@@ -0,0 +1,108 @@
+package com.proxy.interceptor.service;
+
+import com.proxy.interceptor.dto.JournalRecord;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalReaderTest {
+
+    private static byte[] sql(long i) {
+        return ("SELECT " + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<JournalRecord> read(Path dir, long from, long to) throws IOException {
+        List<JournalRecord> records = new ArrayList<>();
+        new JournalReader(dir, Instant.ofEpochMilli(from), Instant.ofEpochMilli(to)).forEachRemaining(records::add);
+        return records;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /*
+    * Records spread over several small segments, with several records per millisecond: a range
+    * returns exactly its records, in order, wherever it starts and ends.
+     */
+    @Test
+    void readsExactlyTheRangeAcrossSegments() throws IOException {
+        Path dir = Files.createTempDirectory("journal");
+        try {
+            long sequence = 1;
+            JournalSegment segment = JournalSegment.create(dir, sequence++, 4096, 256);
+            int records = 2000;
+            for (long i = 0; i < records; i++) {
+                long timestamp = 1_000 + i / 3;
+                if (!segment.append(timestamp, "conn-1", i % 2 == 0 ? "app" : null, i, "ALLOWED", i * 10, sql(i))) {
+                    segment.close();
+                    segment = JournalSegment.create(dir, sequence++, 4096, 256);
+                    assertTrue(segment.append(timestamp, "conn-1", i % 2 == 0 ? "app" : null, i, "ALLOWED", i * 10, sql(i)));
+                }
+            }
+            segment.close();
+            assertTrue(sequence > 5);
+
+            for (long[] range : new long[][] {{1_000, 1_666}, {1_100, 1_100}, {1_234, 1_500}, {1_600, 9_999}, {0, 999}}) {
+                List<JournalRecord> found = read(dir, range[0], range[1]);
+                long first = Math.max(0, (range[0] - 1_000) * 3);
+                long last = Math.min(records - 1, (range[1] - 1_000) * 3 + 2);
+                assertEquals(Math.max(0, last - first + 1), found.size());
+                for (int k = 0; k < found.size(); k++) {
+                    JournalRecord record = found.get(k);
+                    long i = first + k;
+                    assertEquals(i, record.fingerprint());
+                    assertEquals(1_000 + i / 3, record.timestamp().toEpochMilli());
+                    assertEquals("SELECT " + i, record.sql());
+                    assertEquals(i % 2 == 0 ? "app" : null, record.user());
+                    assertEquals(i * 10, record.latencyNanos());
+                }
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    void corruptRecordEndsTheSegment() throws IOException {
+        Path dir = Files.createTempDirectory("journal");
+        try {
+            JournalSegment segment = JournalSegment.create(dir, 1, 4096, 256);
+            segment.append(1_000, "conn-1", "app", 1, "ALLOWED", 5, sql(1));
+            segment.append(1_001, "conn-1", "app", 2, "CRITICAL", -1, sql(2));
+            int third = segment.position();
+            segment.append(1_002, "conn-1", "app", 3, "ALLOWED", 5, sql(3));
+            segment.close();
+
+            // Flip the last SQL byte of the second record, as a torn write would leave it
+            try (RandomAccessFile file = new RandomAccessFile(JournalSegment.path(dir, 1).toFile(), "rw")) {
+                int end = third - 1;
+                file.seek(end);
+                int b = file.read();
+                file.seek(end);
+                file.write(b ^ 0xFF);
+            }
+
+            List<JournalRecord> found = read(dir, 0, Long.MAX_VALUE);
+            assertEquals(1, found.size());
+            assertEquals(1L, found.get(0).fingerprint());
+        } finally {
+            delete(dir);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.proxy.interceptor.service;
+
+import com.proxy.interceptor.dto.ApprovalTally;
+import com.proxy.interceptor.dto.PendingQuery;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PendingQueryStoreTest {
+
+    private static PendingQuery pending(long id, String connId) {
+        return new PendingQuery(id, connId, false, null, null, null, new ApprovalTally());
+    }
+
+    @Test
+    void removeConnectionOnlyTouchesItsOwnQueries() {
+        PendingQueryStore store = new PendingQueryStore();
+        store.put(pending(1, "a"));
+        store.put(pending(2, "b"));
+        store.put(pending(3, "a"));
+
+        List<PendingQuery> removed = store.removeConnection("a");
+
+        assertEquals(List.of(1L, 3L), removed.stream().map(PendingQuery::id).sorted().toList());
+        assertNull(store.get(1L));
+        assertNotNull(store.get(2L));
+        assertEquals(1, store.size());
+        assertEquals(1, store.connectionCount());
+    }
+
+    @Test
+    void removeIsConditionalOnTheEntry() {
+        PendingQueryStore store = new PendingQueryStore();
+        PendingQuery first = pending(1, "a");
+        store.put(first);
+        PendingQuery other = pending(1, "a");
+
+        assertFalse(store.remove(1L, other));
+        assertTrue(store.remove(1L, first));
+        assertFalse(store.remove(1L, first));
+        assertNull(store.remove(1L));
+        assertEquals(0, store.connectionCount());
+    }
+
+    /*
+    * Approvals, expiry and disconnects race on the same queries: every query must be removed
+    * exactly once, and both maps must be empty once everything is gone.
+     */
+    @Test
+    void concurrentRemovalsClaimEachQueryOnce() throws Exception {
+        int threads = 8;
+        int perThread = 50_000;
+        int connections = 64;
+        PendingQueryStore store = new PendingQueryStore();
+        AtomicIntegerArray claims = new AtomicIntegerArray(threads * perThread);
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int base = t * perThread;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = base; i < base + perThread; i++) {
+                        PendingQuery query = pending(i, "c" + (i % connections));
+                        store.put(query);
+
+                        // Resolve a random earlier query of any thread, or drop a whole connection
+                        long target = random.nextInt(i + 1);
+                        switch (random.nextInt(4)) {
+                            case 0 -> {
+                                PendingQuery removed = store.remove(target);
+                                if (removed != null) {
+                                    claims.incrementAndGet(removed.id().intValue());
+                                }
+                            }
+                            case 1 -> {
+                                PendingQuery current = store.get(target);
+                                if (current != null && store.remove(target, current)) {
+                                    claims.incrementAndGet((int) target);
+                                }
+                            }
+                            case 2 -> {
+                                if (random.nextInt(64) == 0) {
+                                    for (PendingQuery removed : store.removeConnection("c" + random.nextInt(connections))) {
+                                        claims.incrementAndGet(removed.id().intValue());
+                                    }
+                                }
+                            }
+                            default -> { }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int c = 0; c < connections; c++) {
+            for (PendingQuery removed : store.removeConnection("c" + c)) {
+                claims.incrementAndGet(removed.id().intValue());
+            }
+        }
+
+        for (int i = 0; i < claims.length(); i++) {
+            assertEquals(1, claims.get(i), "query " + i);
+        }
+        assertEquals(0, store.size());
+        assertEquals(0, store.connectionCount());
+    }
+}